@@ -1,42 +1,105 @@
+import java.io.IOException;
+import java.io.Writer;
+
 /**
  * Ad-hoc representation of a sequence alignment
+ * The two rows are char arrays with free space on both sides, so attaching a column on the left or
+ * on the right, and removing the leftmost one, are O(1) (amortized, if the capacity was too small).
  * @author kehwan
  *
  */
 public class Alignment {
-	private StringBuilder row1 = new StringBuilder();
-	private StringBuilder row2 = new StringBuilder();
-	
+	private char[] row1;
+	private char[] row2;
+	private int start;	//leftmost column
+	private int end;	//one after the rightmost column
+
+	public Alignment(){
+		this(16);
+	}
+
+	/**
+	 * Empty alignment with room for the given number of columns on the left (e.g. |T|+|P| when filling from the right).
+	 * @param capacity
+	 */
+	public Alignment(int capacity){
+		row1 = new char[Math.max(capacity, 1)];
+		row2 = new char[row1.length];
+		start = end = row1.length;
+	}
+
 	/**
 	 * Attach the given character pair on the left.
 	 * @param top
 	 * @param bottom
 	 */
 	public void append(char top, char bottom){
-		row1.insert(0, top);
-		row2.insert(0, bottom);
+		if (start == 0)
+			grow();
+		start--;
+		row1[start] = top;
+		row2[start] = bottom;
+	}
+	/**
+	 * Attach the given character pair on the right.
+	 * @param top
+	 * @param bottom
+	 */
+	public void appendRight(char top, char bottom){
+		if (end == row1.length)
+			grow();
+		row1[end] = top;
+		row2[end] = bottom;
+		end++;
 	}
 	/**
 	 * Returns the number of columns.
 	 * @return
 	 */
 	public int length(){
-		return row1.length();
+		return end - start;
 	}
-	
+
 	/**
 	 * Removes leftmost column.
 	 */
 	public void shorten(){
-		row1.deleteCharAt(0);
-		row2.deleteCharAt(0);
+		start++;
 	}
-	
+
 	/**
 	 * Prints out the alignment to stdout.
 	 */
 	public void print(){
-		System.out.println(row1);
-		System.out.println(row2);
+		System.out.println(new String(row1, start, end - start));
+		System.out.println(new String(row2, start, end - start));
+	}
+
+	/**
+	 * Writes the alignment to out, two lines. Does not make any Strings.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void print(Writer out) throws IOException{
+		out.write(row1, start, end - start);
+		out.write('\n');
+		out.write(row2, start, end - start);
+		out.write('\n');
+	}
+
+	/**
+	 * Doubles the arrays, with the columns in the middle, so there is room on both sides again.
+	 */
+	private void grow(){
+		int length = end - start;
+		char[] new1 = new char[2 * row1.length + 2];
+		char[] new2 = new char[new1.length];
+		int newStart = (new1.length - length) / 2;
+		System.arraycopy(row1, start, new1, newStart, length);
+		System.arraycopy(row2, start, new2, newStart, length);
+		row1 = new1;
+		row2 = new2;
+		start = newStart;
+		end = newStart + length;
 	}
 }
@@ -0,0 +1,132 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Goes through all optimal alignments, i.e. all paths from (n,m) to (0,0) in the graph of arrows in the traceback matrix A.
+ * Same order as the old recursivelyPrintAlignments: at every cell first DEL, then MUT, then INS.
+ *
+ * Instead of a function call per alignment column, there is an explicit stack with one entry per column:
+ * which arrow we took, and which ones are still left to try. So long sequences do not blow the stack,
+ * and there is no allocation per alignment. The alignment is filled from the right, one column per step,
+ * and when we back up to a branch only the columns after it are redone.
+ *
+ * Note: next() always returns the same Alignment object, changed in place. Print it (or copy it) before calling next() again.
+ * @author kehwan
+ *
+ */
+public class AlignmentIterator implements Iterator<Alignment> {
+	private final TracebackMatrix A;
+	private final String T, P;
+	private final long limit;
+
+	private final byte[] taken;		//taken[d]: the arrow followed at depth d
+	private final byte[] left;		//left[d]: the arrows at depth d not tried yet
+	private int depth;
+	private int i, j;
+	private final Alignment alignment;
+
+	private long returned = 0;
+	private boolean ready;			//alignment holds one that was not returned yet
+	private boolean done;
+
+	/**
+	 * @param A filled out traceback matrix for T and P
+	 * @param T template, goes on top of the alignment
+	 * @param P probe, goes in the bottom
+	 * @param limit stop after this many alignments (Long.MAX_VALUE: all of them)
+	 */
+	AlignmentIterator(TracebackMatrix A, String T, String P, long limit){
+		this.A = A;
+		this.T = T;
+		this.P = P;
+		this.limit = limit;
+		int columns = T.length() + P.length();
+		taken = new byte[columns];
+		left = new byte[columns];
+		alignment = new Alignment(columns);
+		i = P.length();
+		j = T.length();
+		depth = 0;
+		descend();
+		ready = true;
+	}
+
+	public boolean hasNext(){
+		if (!ready && !done){
+			if (backtrack())
+				descend();
+			else
+				done = true;
+			ready = !done;
+		}
+		return ready && returned < limit;
+	}
+
+	public Alignment next(){
+		if (!hasNext())
+			throw new NoSuchElementException();
+		ready = false;
+		returned++;
+		return alignment;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Follows the first arrow at each cell until (0,0).
+	 */
+	private void descend(){
+		while (i > 0 || j > 0){
+			left[depth] = (byte) A.get(i, j);
+			step();
+		}
+	}
+
+	/**
+	 * Takes the first arrow of left[depth] (in the order DEL, MUT, INS) and moves along it, one column further to the left.
+	 */
+	private void step(){
+		int arrows = left[depth];
+		int arrow;
+		if ((arrows & TracebackMatrix.DEL) != 0){
+			arrow = TracebackMatrix.DEL;
+			alignment.append(T.charAt(j-1), '_');
+			j--;
+		}
+		else if ((arrows & TracebackMatrix.MUT) != 0){
+			arrow = TracebackMatrix.MUT;
+			alignment.append(T.charAt(j-1), P.charAt(i-1));
+			i--; j--;
+		}
+		else {
+			arrow = TracebackMatrix.INS;
+			alignment.append('_', P.charAt(i-1));
+			i--;
+		}
+		left[depth] = (byte) (arrows & ~arrow);
+		taken[depth] = (byte) arrow;
+		depth++;
+	}
+
+	/**
+	 * Goes back up to the last cell that still has an arrow left to try, and takes it.
+	 * @return false if there is no such cell, i.e. all alignments have been seen
+	 */
+	private boolean backtrack(){
+		while (depth > 0){
+			depth--;
+			alignment.shorten();
+			if (taken[depth] != TracebackMatrix.INS)
+				j++;
+			if (taken[depth] != TracebackMatrix.DEL)
+				i++;
+			if (left[depth] != 0){
+				step();
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Bit-parallel alignment score for the unit scores of this program (s(a,b) = +1 or -1, indel -1), 64 cells of D per long.
+ * In the spirit of Myers' bit-vector edit distance (Myers 1999, Hyyroe 2003), which does not fit directly: that is for
+ * edit distance (mismatch and indel both cost 1), and these scores are not a function of the edit distance.
+ *
+ * Trick 1: D'(i,j) = D(i,j) + i + j makes indels free and turns matches into +3 and mismatches into +1, and D' only grows
+ * along rows and columns. So the differences between vertically neighbouring cells, v(i) = D'(i,j) - D'(i-1,j), are 0...3,
+ * two bits each. We keep them per column as three bit vectors over the probe, V1, V2, V3, where bit i of Vt is 1 if v(i) >= t.
+ * Trick 2: one column of D' follows from the one before and the template letter t_j:
+ * with h(i) = D'(i,j) - D'(i,j-1), h(i) = max(w(i) - v(i), h(i-1) - v(i), 0), w(i) = 3 for a match of p_i with t_j and 1 otherwise,
+ * and the new v(i) = max(w(i) - h(i-1), v(i) - h(i-1), 0).
+ * The chain h(i-1) -> h(i) goes down the whole column, but it only passes unchanged through the rows with v(i) = 0, and
+ * "a 1 bit runs on through a block of set bits of a mask" is what the carry of an addition does. One addition per level of h (three),
+ * plus a few dozen and/or/xor per 64 rows and template letter.
+ * D'(n,j) is summed up from h(n), so we get the whole last row of D (for hirschberg) at no extra cost.
+ *
+ * Only used when every pair of letters that occurs scores +1 or -1 (see unitScores); System property alignment.kernel=scalar turns it off.
+ * @author kehwan
+ *
+ */
+public class BitParallel {
+	static final boolean ENABLED = !"scalar".equals(System.getProperty("alignment.kernel"));
+
+	/**
+	 * Do all pairs of letters of these sequences score +1 or -1 (and indels -1)? Then the bit-parallel kernel (if ENABLED)
+	 * and WavefrontAlignment can align them.
+	 */
+	static boolean unitScores(String template, String probe){
+		if (GlobalAlignment.indel_cost != -1)
+			return false;
+		String a = letters(template);
+		String b = letters(probe);
+		for (int x=0;x<b.length();x++)
+			for (int y=0;y<a.length();y++){
+				int s = GlobalAlignment.s(b.charAt(x), a.charAt(y));
+				if (s != 1 && s != -1)
+					return false;
+			}
+		return true;
+	}
+
+	/**
+	 * Score of the optimal alignments, D(n,m).
+	 */
+	static int score(String template, String probe){
+		int[] row = lastRow(template, probe);
+		return row[row.length - 1];
+	}
+
+	/**
+	 * Same as GlobalAlignment.lastRow: row n of D, the scores of the whole probe with every prefix t1...tj of the template.
+	 * O(|template| * |probe| / 64) time, O(|template| + |probe|) memory.
+	 */
+	static int[] lastRow(String template, String probe){
+		int m = template.length();
+		int n = probe.length();
+		int words = (n + 63) / 64;
+		int[] last = new int[m+1];
+		for (int j=0;j<=m;j++)
+			last[j] = j * GlobalAlignment.indel_cost;
+		if (n == 0)
+			return last;
+		last[0] = n * GlobalAlignment.indel_cost;
+
+		//Eq[c]: bit i is 1 if p_i and letter c of the template score +1
+		String letters = letters(template);
+		long[][] Eq = new long[letters.length()][words];
+		for (int c=0;c<letters.length();c++)
+			for (int i=0;i<n;i++)
+				if (GlobalAlignment.s(probe.charAt(i), letters.charAt(c)) == 1)
+					Eq[c][i >>> 6] |= 1L << i;
+		int[] ascii = new int[128];
+		for (int c=0;c<letters.length();c++)
+			if (letters.charAt(c) < 128)
+				ascii[letters.charAt(c)] = c;
+
+		//Column 0: D'(i,0) = 0, so all v(i) = 0
+		long[] V1 = new long[words], V2 = new long[words], V3 = new long[words];
+		int bottom = (n-1) & 63;	//row n in the last word
+		int score = 0;	//D'(n,j)
+		for (int j=1;j<=m;j++){
+			char t = template.charAt(j-1);
+			long[] eq = Eq[t < 128 ? ascii[t] : letters.indexOf(t)];
+			long in1 = 0, in2 = 0, in3 = 0;	//h of the last row of the word above (h(0) = 0)
+			for (int w=0;w<words;w++){
+				long e = eq[w];
+				long v1 = V1[w], v2 = V2[w], v3 = V3[w];
+				long z0 = ~v1;			//v = 0: h passes through
+				long z1 = v1 & ~v2;		//v = 1
+				long z2 = v2 & ~v3;		//v = 2
+
+				//h >= 3: from a match with v = 0, or from h(i-1) >= 3 through v = 0
+				long h3 = propagate(e & z0, z0, in3);
+				long s3 = (h3 << 1) | in3;	//h(i-1) >= 3
+				//h >= 2: match with v <= 1, h(i-1) >= 3 with v = 1, or h(i-1) >= 2 through v = 0
+				long h2 = propagate((e & ~v2) | (z1 & s3), z0, in2);
+				long s2 = (h2 << 1) | in2;
+				//h >= 1: match with v <= 2, mismatch with v = 0, h(i-1) >= v+1
+				long h1 = propagate((e & ~v3) | z0 | (z2 & s3) | (z1 & s2), z0, in1);
+				long s1 = (h1 << 1) | in1;
+
+				//new v: max(w - h(i-1), v - h(i-1), 0), h(i-1) given by s1, s2, s3
+				long e0 = ~s1, e1 = s1 & ~s2, e2 = s2 & ~s3;	//h(i-1) = 0, 1, 2
+				V1[w] = (e & ~s3) | e0 | (e1 & v2) | (e2 & v3);
+				V2[w] = (e & ~s2) | (e0 & v2) | (e1 & v3);
+				V3[w] = (e & e0) | (e0 & v3);
+
+				in1 = h1 >>> 63;
+				in2 = h2 >>> 63;
+				in3 = h3 >>> 63;
+				if (w == words-1)
+					score += (int) (((h1 >>> bottom) & 1) + ((h2 >>> bottom) & 1) + ((h3 >>> bottom) & 1));
+			}
+			last[j] = score - n - j;
+		}
+		return last;
+	}
+
+	/**
+	 * R(i) = S(i) | (P(i) & R(i-1)), with R(-1) = in: every 1 of S (and in) runs on through the following block of 1s of P.
+	 * Adding a 1 at the start of a block of 1s makes the carry run through all of it, and xor with P shows where it went.
+	 */
+	private static long propagate(long S, long P, long in){
+		long Q = ((S << 1) | in) & P;	//where a run starts (or gets a new start)
+		return S | Q | (((P + Q) ^ P) & P);
+	}
+
+	/**
+	 * The different letters of a sequence.
+	 */
+	private static String letters(String sequence){
+		StringBuilder letters = new StringBuilder();
+		boolean[] seen = new boolean[128];
+		for (int x=0;x<sequence.length();x++){
+			char c = sequence.charAt(x);
+			if (c < 128 ? !seen[c] : letters.indexOf(String.valueOf(c)) < 0){
+				if (c < 128)
+					seen[c] = true;
+				letters.append(c);
+			}
+		}
+		return letters.toString();
+	}
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a FASTA file one sequence (record) at a time, so files of any size can be gone through in constant memory
+ * (as much as the longest sequence needs).
+ *
+ * The file is memory-mapped, WINDOW bytes at a time, and read byte by byte. No line Strings: the residues of a record
+ * are copied into one byte array that is reused for every record, and only the header becomes a String.
+ * Format: a record starts with a '>' line (the header), then the sequence lines follow until a blank line or the next '>' line.
+ * Whitespace and '\r' in sequence lines are skipped. Lines that are not in a record are ignored, and so are records without residues.
+ *
+ * Note: next() always returns the same Record object, changed in place. Use it (or copy it) before calling next() again.
+ * @author kehwan
+ *
+ */
+public class FASTAReader implements Iterator<FASTAReader.Record> {
+	static final int WINDOW = 1 << 26;	//64MB of the file mapped at a time
+
+	/**
+	 * One sequence from the file.
+	 */
+	public static class Record {
+		String header = "";			//the '>' line, without the '>'
+		byte[] residues = new byte[1024];	//the sequence (ASCII letters) is residues[0...length-1]
+		int length;
+
+		/**
+		 * The residues as a String.
+		 */
+		public String toString(){
+			char[] letters = new char[length];
+			for (int x=0; x<length; x++)
+				letters[x] = (char) (residues[x] & 0xff);
+			return new String(letters);
+		}
+	}
+
+	private final RandomAccessFile file;
+	private final long size;
+	private MappedByteBuffer window;
+	private long windowStart;		//position of the window in the file
+	private int lineStart = -1;		//one byte of look-ahead: the first byte of the next line (-1: not read yet, -2: end of file)
+	private final Record record = new Record();
+	private boolean ready;			//record holds one that was not returned yet
+
+	/**
+	 * Opens the file.
+	 * @param filename
+	 * @throws IOException
+	 */
+	FASTAReader(String filename) throws IOException{
+		file = new RandomAccessFile(filename, "r");
+		size = file.length();
+		windowStart = 0;
+		map();
+	}
+
+	public boolean hasNext(){
+		if (!ready)
+			ready = readRecord();
+		return ready;
+	}
+
+	public Record next(){
+		if (!hasNext())
+			throw new NoSuchElementException();
+		ready = false;
+		return record;
+	}
+
+	public void remove(){
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Closes the file. The mapping goes away when it is garbage collected (Java has no other way).
+	 */
+	void close() throws IOException{
+		file.close();
+	}
+
+	/**
+	 * Reads up to the next record with residues.
+	 * @return false at the end of the file
+	 */
+	private boolean readRecord(){
+		while (true){
+			//skip to the next header line
+			int c = lineStart == -1 ? read() : lineStart;
+			while (c != '>' && c != -2)
+				c = c == '\n' ? read() : skipLine();
+			if (c == -2)
+				return false;
+
+			StringBuilder header = new StringBuilder();
+			while ((c = read()) != -2 && c != '\n')
+				if (c != '\r')
+					header.append((char) c);
+			record.header = header.toString();
+			record.length = 0;
+
+			//sequence lines, until a blank line, a header or the end
+			while ((c = readLineStart()) != -2 && c != '>' && c != '\n'){
+				for (; c != -2 && c != '\n'; c = read()){
+					if (c == ' ' || c == '\t' || c == '\r')
+						continue;
+					if (record.length == record.residues.length){
+						byte[] bigger = new byte[2 * record.residues.length];
+						System.arraycopy(record.residues, 0, bigger, 0, record.length);
+						record.residues = bigger;
+					}
+					record.residues[record.length++] = (byte) c;
+				}
+				if (c == -2)
+					break;
+			}
+			lineStart = c == '\n' ? read() : c;	//after a blank line, the line after it
+			if (record.length > 0)
+				return true;
+		}
+	}
+
+	/**
+	 * First byte of a line. A '\r' at the start does not count, so a "\r\n" line is blank as it should be.
+	 */
+	private int readLineStart(){
+		int c = read();
+		return c == '\r' ? read() : c;
+	}
+
+	/**
+	 * Skips the rest of the current line.
+	 * @return first byte of the next line, or -2 at the end of the file
+	 */
+	private int skipLine(){
+		int c;
+		while ((c = read()) != -2 && c != '\n')
+			;
+		return c == -2 ? -2 : read();
+	}
+
+	/**
+	 * Next byte of the file, or -2 at the end.
+	 */
+	private int read(){
+		if (!window.hasRemaining()){
+			if (windowStart + window.capacity() >= size)
+				return -2;
+			windowStart += window.capacity();
+			try {
+				map();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return window.get() & 0xff;
+	}
+
+	private void map() throws IOException{
+		window = file.getChannel().map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(WINDOW, size - windowStart));
+	}
+}
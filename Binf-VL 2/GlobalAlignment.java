@@ -1,7 +1,8 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.*;
 /**
  * For a course ('Grundlagen der Bioinformatik')
@@ -9,6 +10,10 @@ import java.util.*;
  * Returns alignment score and, optionally all optimal alignments.
  * 
  * Score computation is O(|S|+|T|) memory and O(|S|*|T|) time. Alignment computation needs at least quadratic memory in this implementation.  
+ * With -linearSpace, one optimal alignment is computed in O(|S|+|T|) memory instead (Hirschberg's divide and conquer, about twice the time).
+ * With the unit scores below, -onlyScore and -linearSpace compute 64 cells at a time (see BitParallel).
+ * With -wfa, one optimal alignment is computed in O((|S|+|T|) * d) time, where d is the distance of the sequences (see WavefrontAlignment).
+ * For nearly identical sequences, e.g. two isoforms of a gene, that is milliseconds.
  * 
  * The score of an alignment is:
  * -m for a single position insertion or deletion
@@ -51,81 +56,108 @@ public class GlobalAlignment {
 	static String T;	//t1...tm. The first of two sequences to align. Goes on top of alignment. The 'Template'.
 	static String P;	//p1...pn. The second of two sequences to align. Goes in bottom of alignment. The 'Probe'
 	static int[][] D;	//Score matrix. D(i,j) = Score of highest scoring alignment of t1..tj with p1...pj
-	static EnumSet<EditscriptEvent>[][] A;	//A(i,j) is a subset of {MUT, INS, DEL}. 
+	static TracebackMatrix A;	//A(i,j) is a subset of {MUT, INS, DEL}. Packed into half a byte per cell.
 	
-	//Used by the function that prints the optimal alignments using the data from A
-	static int i;
-	static int j;
 	static Alignment alignment;
+	static boolean bitParallel;	//all letters of T and P score +1 or -1 against each other, so BitParallel can be used
 	
 	public static void main(String[] args) throws IOException{
 		boolean makeAlignments;
+		boolean linearSpace = false;
+		boolean wfa = false;
+		long maxAlignments = Long.MAX_VALUE;
 		
 		if (args.length < 2){
 			System.out.println("Parameter 1 required: Name of a FASTA file with two sequences.");
 			System.out.println("Parameter 2 required: Name of a file with a scoring matrix, BLOSUM format.");
 			System.out.println("Optional third parameter -onlyScore disables alignment computation (uses less memory)");
+			System.out.println("Optional third parameter -linearSpace computes only one optimal alignment, in linear memory");
+			System.out.println("Optional parameter -maxAlignments N stops after N optimal alignments");
+			System.out.println("Optional parameter -wfa computes only one optimal alignment, very fast for similar sequences (unit scores only)");
 			System.exit(0);
 		}
 		
-		if (args.length	== 3 && args[2].equals("-onlyScore"))
-			makeAlignments = false;
-		else
-			makeAlignments = true;
+		makeAlignments = true;
+		for (int a=2;a<args.length;a++){
+			if (args[a].equals("-onlyScore"))
+				makeAlignments = false;
+			else if (args[a].equals("-linearSpace"))
+				linearSpace = true;
+			else if (args[a].equals("-wfa"))
+				wfa = true;
+			else if (args[a].equals("-maxAlignments") && a+1 < args.length)
+				maxAlignments = Long.parseLong(args[++a]);
+		}
 		
 		//Read in scoring Matrix from file in argument 2.
 		S = new ScoringMatrix(new File(args[1]));
 		
-		//This block will read in the first sequence in the fasta file (first command line argument) into T and the second into P
+		//Read in the first sequence in the fasta file (first command line argument) into T and the second into P
 		//(Sequences are just ascii strings here)
-		//TODO: A correct fasta parser.
-		//TODO: Is it really true that the garbage collector does not collect Strings? Then I shouldn't use a String line = like I do. Oh well.
 		{
-			String line;
-			BufferedReader br = new BufferedReader(new FileReader(args[0]));
-			StringBuilder t = new StringBuilder();
-	
-			line = br.readLine();
-
-			//Skip to beginning of the first sequence
-			while (line != null && (line.length() == 0 || line.charAt(0) != '>'))
-				line = br.readLine();
-			
-			//Read until it is over (blank line or >) 
-			while((line = br.readLine()) != null && line.length() != 0 && line.charAt(0) != '>')
-				t.append(line);
-			
-			//and write sequence into T (template)
-			T = t.toString();
-			
-			//now read next sequence
-			t = new StringBuilder();
-			
-			//Skip to the beginning of sequence
-			while (line != null && (line.length() == 0 || line.charAt(0) != '>'))
-				line = br.readLine();
-			
-			//Read until it is over (blank line or >) 
-			while((line = br.readLine()) != null && line.length() != 0 && line.charAt(0) != '>')
-				t.append(line);
-			
-			P = t.toString();
-			
-			br.close();
+			FASTAReader source = new FASTAReader(args[0]);
+			T = source.hasNext() ? source.next().toString() : "";
+			P = source.hasNext() ? source.next().toString() : "";
+			source.close();
 		}
 		//done reading sequences into T and P
 		
 		int m = T.length();
 		int n = P.length();
+		boolean unitScores = BitParallel.unitScores(T, P);
+		bitParallel = BitParallel.ENABLED && unitScores;
 		
-		if (makeAlignments && (/* (n*m) is large */ n * m > Math.pow(10, 9)))	//We would require a really big matrix
-			System.out.println("Warning: Memory use will be > 1GB due to long inputs. Use 2nd parameter -onlyScore to not calculate alignments and reduce memory use to O(|Seq1|+|Seq2|)");
+		if (wfa && !unitScores){
+			System.out.println("Warning: -wfa needs scores of +1 and -1 for all letters of the sequences, ignoring it");
+			wfa = false;
+		}
+		
+		if (wfa){
+			//Wavefronts: cost grows with the distance of the sequences, not their length
+			if (makeAlignments){
+				alignment = new Alignment();
+				int score = WavefrontAlignment.align(T, P, alignment);
+				if (score != Integer.MIN_VALUE){
+					System.out.println("The best possible alignment score is: " + score);
+					System.out.println("An alignment with this score is:\n");
+					alignment.print();
+					return;
+				}
+				System.out.println("Warning: the sequences are too different for -wfa, using -linearSpace instead");
+				linearSpace = true;
+			}
+			else {
+				System.out.println("The best possible alignment score is: " + WavefrontAlignment.score(T, P));
+				System.out.println("You have disabled alignment output.");
+				return;
+			}
+		}
+		
+		if (makeAlignments && !linearSpace && (/* (n*m) is large */ (long) n * (m+1) > 2 * Math.pow(10, 9)))	//We would require a really big matrix
+			System.out.println("Warning: Traceback will need > 1GB (in a temporary file) due to long inputs. Use 2nd parameter -onlyScore to not calculate alignments and reduce memory use to O(|Seq1|+|Seq2|), or -linearSpace to get one optimal alignment with O(|Seq1|+|Seq2|) memory");
+		
+		if (linearSpace && makeAlignments){	//with -onlyScore, the score below needs only two rows anyway
+			//Divide and conquer. Never holds more than two rows of D at a time, and no A at all.
+			alignment = new Alignment();
+			int score = hirschberg(T, P, alignment);
+			System.out.println("The best possible alignment score is: " + score);
+			System.out.println("An alignment with this score is:\n");
+			alignment.print();
+			return;
+		}
+		
+		if (!makeAlignments && bitParallel){
+			//Same score as the loop below, 64 cells at a time
+			System.out.println("The best possible alignment score is: " + BitParallel.score(T, P));
+			System.out.println("You have disabled alignment output.");
+			return;
+		}
 		
 		//The following section will calculate the scores of the optimal alignments, and optionally the backtracking information.
 		D = new int[n+1][]; //distance matrix
 		
 		if (makeAlignments)
-			A = new EnumSet[n+1][m+1]; //If A[i][j] contains, say, {MUT, DEL} then that means that an optimal alignment of T1...Tj with P1...Pi can end with either a mutation or a deletion-in-template, i.e. the corresponding types of alignment column (base-base, or base-gap, iirc)
+			A = new TracebackMatrix(n, m); //If A[i][j] contains, say, {MUT, DEL} then that means that an optimal alignment of T1...Tj with P1...Pi can end with either a mutation or a deletion-in-template, i.e. the corresponding types of alignment column (base-base, or base-gap, iirc)
 										//It can be visualized as sets of arrows, or equivalently, as a set of last columns.
 		
 		//Row 0: alignments of prefixes of the template with ""
@@ -134,7 +166,7 @@ public class GlobalAlignment {
 			D[0][j] = j * indel_cost;
 			
 			if (makeAlignments)
-				A[0][j] = EnumSet.of(EditscriptEvent.DEL); //note this corresponds to { <- }, set of left-arrow only
+				A.set(0, j, TracebackMatrix.DEL); //note this corresponds to { <- }, set of left-arrow only
 		}
 	
 		//Fill out the matrix row by row. Only save the row currently being filled and the one above. Discard the rest.
@@ -145,7 +177,7 @@ public class GlobalAlignment {
 			//Column 0 is for alignments of prefixes of the probe with ""
 			D[i][0] = i * indel_cost;
 			if (makeAlignments)
-				A[i][0] = EnumSet.of(EditscriptEvent.INS); //set of up-arrow only. 
+				A.set(i, 0, TracebackMatrix.INS); //set of up-arrow only. 
 			
 			//Fill out row i
 			for (int j=1;j<=m;j++){	//cell (i,j)
@@ -173,13 +205,14 @@ public class GlobalAlignment {
 				
 				if (makeAlignments){
 					//Record what the optimal alignment of t1...tj with p1...pi was.
-					A[i][j] = EnumSet.noneOf(EditscriptEvent.class);
+					int arrows = 0;
 					if (score_if_match == D[i][j])
-						A[i][j].add(EditscriptEvent.MUT);	//Could it have been possibility 1?
+						arrows |= TracebackMatrix.MUT;	//Could it have been possibility 1?
 					if (score_if_ins == D[i][j])
-						A[i][j].add(EditscriptEvent.INS);	//or possibility 2?
+						arrows |= TracebackMatrix.INS;	//or possibility 2?
 					if (score_if_del == D[i][j])
-						A[i][j].add(EditscriptEvent.DEL);	//or possbility 3?
+						arrows |= TracebackMatrix.DEL;	//or possbility 3?
+					A.set(i, j, arrows);
 				}
 			}
 			//done computing scores in row i. free up memory used by previous row
@@ -191,71 +224,153 @@ public class GlobalAlignment {
 		//Output optimal alignments
 		if (makeAlignments){
 			System.out.println("The alignments with this score are:\n");
-			i = n;
-			j = m;
-			alignment = new Alignment();			
-		    recursivelyPrintAlignments();
+			printAlignments(maxAlignments);
 		}
 		else
 			System.out.println("You have disabled alignment output.");
 	}
 
 	/**
-	 * Print all optimal alignments, corresponding to all paths from (i,j) to (0,0) 
-	 * in the graph determined by the 'arrows' in matrix A 
-	 * 
-	 * This sloppy function uses many global variables:
-	 * A, T, P, i, j, alignment		(at the time of this writing)
-	 * 
-	 * This allows for a recursion where the stack frames save nothing. 
-	 * (i.e. no memory is allocated in stackframes for locals such as alignment, or even i, j)
+	 * Returns the last row of the score matrix D for the alignment of template with probe, i.e. the scores of
+	 * the optimal alignments of the whole probe with every prefix t1...tj of the template.
+	 * Same row-by-row loop as in main, only the row being filled and the one above are kept. O(|template|) memory.
+	 * With unit scores, BitParallel does the same 64 cells at a time.
+	 * @param template goes on top of the alignment (top side of the matrix)
+	 * @param probe goes in the bottom of the alignment (left side of the matrix)
+	 * @return row n of D, with m+1 entries
 	 */
-	static void recursivelyPrintAlignments(){
-		if (i==0 && j == 0){
-			alignment.print();
-			System.out.println();
-			return;
+	static int[] lastRow(String template, String probe){
+		if (bitParallel)
+			return BitParallel.lastRow(template, probe);
+		int m = template.length();
+		int n = probe.length();
+		int[] above = new int[m+1];
+		int[] row = new int[m+1];
+		
+		//Row 0: alignments of prefixes of the template with ""
+		for (int j=0;j<=m; j++)
+			above[j] = j * indel_cost;
+		
+		for (int i=1;i<=n;i++){	//row i
+			row[0] = i * indel_cost;
+			char p = probe.charAt(i-1);
+			for (int j=1;j<=m;j++){	//cell (i,j)
+				int score_if_match = above[j-1] + s(p, template.charAt(j-1));
+				int score_if_del = row[j-1] + indel_cost;
+				int score_if_ins = above[j] + indel_cost;
+				row[j] = Math.max(Math.max(score_if_match, score_if_del), score_if_ins);
+			}
+			//row i is the row above in the next iteration, the old one gets overwritten
+			int[] swap = above; above = row; row = swap;
 		}
-		else {	
-			if (A[i][j].contains(EditscriptEvent.DEL /* <- */)){
-				alignment.append(T.charAt(j-1), '_');
-				j--;
-				recursivelyPrintAlignments();
-				//now backtracking...
-				j++;	
-				alignment.shorten();
+		return above;
+	}
+	
+	/**
+	 * Computes one optimal alignment of template with probe in O(|template|+|probe|) memory (Hirschberg's algorithm).
+	 * The probe is cut in half. The forward pass (lastRow of the upper half) and the backward pass (lastRow of the reversed
+	 * lower half with the reversed template) tell us in which column an optimal path crosses the middle of the matrix.
+	 * Then the two halves are aligned recursively. Recursion depth is only log(|probe|).
+	 * Columns are attached on the right of the alignment, so the left half has to be done first.
+	 * @param template goes on top of the alignment
+	 * @param probe goes in the bottom of the alignment
+	 * @param alignment the columns of the optimal alignment are appended to this
+	 * @return score of the alignment
+	 */
+	static int hirschberg(String template, String probe, Alignment alignment){
+		int m = template.length();
+		int n = probe.length();
+		
+		if (n <= 1 || m <= 1)
+			return alignSmall(template, probe, alignment);
+		
+		int mid = n / 2;
+		String upper = probe.substring(0, mid);
+		String lower = probe.substring(mid);
+		int[] forward = lastRow(template, upper);					//forward[j]: score of upper half with t1...tj
+		int[] backward = lastRow(reverse(template), reverse(lower));	//backward[k]: score of lower half with the last k characters of the template
+		
+		//Find the column where the optimal path crosses from the upper into the lower half
+		int split = 0;
+		for (int j=1;j<=m;j++)
+			if (forward[j] + backward[m-j] > forward[split] + backward[m-split])
+				split = j;
+		int score = forward[split] + backward[m-split];
+		
+		hirschberg(template.substring(0, split), upper, alignment);
+		hirschberg(template.substring(split), lower, alignment);
+		return score;
+	}
+	
+	/**
+	 * Base case of hirschberg(): one of the sequences has at most one character, so the whole matrix has only O(|template|+|probe|) cells.
+	 * Fills it out like main does and follows one path of arrows from (n,m) back to (0,0), preferring DEL, then MUT, then INS like recursivelyPrintAlignments.
+	 */
+	static int alignSmall(String template, String probe, Alignment alignment){
+		int m = template.length();
+		int n = probe.length();
+		int[][] d = new int[n+1][m+1];
+		
+		for (int row=0;row<=n;row++)
+			for (int col=0;col<=m;col++){
+				if (row == 0)
+					d[row][col] = col * indel_cost;
+				else if (col == 0)
+					d[row][col] = row * indel_cost;
+				else
+					d[row][col] = Math.max(Math.max(d[row-1][col-1] + s(probe.charAt(row-1), template.charAt(col-1)), d[row][col-1] + indel_cost), d[row-1][col] + indel_cost);
 			}
-			
-			if (A[i][j].contains(EditscriptEvent.MUT /* \ */)){
-				alignment.append(T.charAt(j-1), P.charAt(i-1));
-				i--; j--;
-				recursivelyPrintAlignments();
-				//now backtracking...
-				i++; j++; 
-				alignment.shorten();
+		
+		//Walk back to (0,0), writing the columns from right to left
+		char[] top = new char[n+m];
+		char[] bottom = new char[n+m];
+		int k = n+m;
+		int row = n;
+		int col = m;
+		while (row > 0 || col > 0){
+			k--;
+			if (col > 0 && (row == 0 || d[row][col] == d[row][col-1] + indel_cost)){	//DEL
+				top[k] = template.charAt(col-1);
+				bottom[k] = '_';
+				col--;
 			}
-			
-			if (A[i][j].contains(EditscriptEvent.INS /* | */)){
-				alignment.append('_', P.charAt(i-1));
-				i--;
-				recursivelyPrintAlignments();
-				//now backtracking...
-				i++;	
-				alignment.shorten();
+			else if (row > 0 && col > 0 && d[row][col] == d[row-1][col-1] + s(probe.charAt(row-1), template.charAt(col-1))){	//MUT
+				top[k] = template.charAt(col-1);
+				bottom[k] = probe.charAt(row-1);
+				row--; col--;
+			}
+			else {	//INS
+				top[k] = '_';
+				bottom[k] = probe.charAt(row-1);
+				row--;
 			}
-			
-			return;
 		}
+		for (; k < n+m; k++)
+			alignment.appendRight(top[k], bottom[k]);
+		return d[n][m];
+	}
+	
+	static String reverse(String sequence){
+		return new StringBuilder(sequence).reverse().toString();
 	}
-}	
 	
-	/*
-	 * The overhead of managing all those function calls is considerable. Edit: No, it's absurd!
-	 * Will this run out of memory when both sequences are large, but have a small number of optimal alignments?
-	 * Yes, currently for each column in the alignment there is a function call put on the stack.
-	 * That is not nice, even if we avoid holding a deep copy of the current alignment as a local variable. (that would case O(oh no(|T|, |S|)) memory use)
+	/**
+	 * Writes out the optimal alignments (at most maxAlignments of them), corresponding to all paths from (n,m) to (0,0)
+	 * in the graph determined by the 'arrows' in matrix A. 
+	 * AlignmentIterator walks the paths with its own stack, so there is no function call per alignment column any more.
+	 * @param maxAlignments
+	 * @throws IOException 
 	 */
-	 //TODO: Let's make it that for every *branch* there is a function call on the stack.
+	static void printAlignments(long maxAlignments) throws IOException{
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		Iterator<Alignment> alignments = new AlignmentIterator(A, T, P, maxAlignments);
+		while (alignments.hasNext()){
+			alignments.next().print(out);
+			out.write('\n');
+		}
+		out.flush();
+	}
+}	
 	
 	//TODO: Find a library for finding paths in implicit directed acyclic graphs
 	//I want to write the code below, which is equivalent to the code in my program.
@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact replacement for EnumSet<EditscriptEvent>[n+1][m+1], the backtracking matrix of GlobalAlignment.
+ * A cell is a subset of {MUT, INS, DEL}, i.e. 3 bits. We store it in 4 bits (a nibble), two cells per byte.
+ * So that is half a byte per cell instead of an EnumSet object per cell (header + bitset + reference, ~40 bytes).
+ *
+ * Cell (i,j) is at nibble i*stride+j. The stride is m+1 rounded up to an even number, so every row starts on a whole byte.
+ * (Two cells in different rows never share a byte. Whoever fills rows in parallel will appreciate it)
+ *
+ * Up to MAX_HEAP_BYTES the nibbles are in a byte[] on the heap. Above that they go into a temporary file that is
+ * memory-mapped in chunks, so the operating system pages it in and out instead of the heap running over.
+ * @author kehwan
+ *
+ */
+public class TracebackMatrix {
+	//The bit of each arrow in a cell, 1 << EditscriptEvent.X.ordinal()
+	static final int DEL = 1;
+	static final int MUT = 2;
+	static final int INS = 4;
+
+	static final long MAX_HEAP_BYTES = 1L << 30;	//more than 1GB of traceback goes into a mapped file
+	private static final int CHUNK_BITS = 30;		//mapped chunks of 1GB each (a single mapping can not be larger than 2GB)
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	private final long stride;
+	private byte[] heap;					//either this...
+	private MappedByteBuffer[] chunks;		//...or this is null
+
+	/**
+	 * Makes an empty (all cells are {}) matrix for a probe of length n and a template of length m, i.e. (n+1)*(m+1) cells.
+	 * @param n
+	 * @param m
+	 * @throws IOException if the matrix does not fit into the heap and the temporary file can not be created
+	 */
+	TracebackMatrix(int n, int m) throws IOException{
+		stride = (m + 2) & ~1L;
+		long bytes = (n + 1) * stride / 2;
+
+		if (bytes <= MAX_HEAP_BYTES)
+			heap = new byte[(int) bytes];
+		else {
+			File file = File.createTempFile("traceback", ".tmp");
+			file.deleteOnExit();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(bytes);
+			FileChannel channel = raf.getChannel();
+			chunks = new MappedByteBuffer[(int) ((bytes + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int c = 0; c < chunks.length; c++){
+				long start = (long) c << CHUNK_BITS;
+				chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(bytes - start, 1L << CHUNK_BITS));
+			}
+			raf.close(); //the mappings stay valid
+		}
+	}
+
+	/**
+	 * Sets cell (i,j) to the given set of arrows.
+	 * @param arrows bitwise or of DEL, MUT and INS
+	 */
+	void set(int i, int j, int arrows){
+		long nibble = i * stride + j;
+		int shift = (int) (nibble & 1) << 2;	//even cells in the low nibble, odd cells in the high one
+		long index = nibble >>> 1;
+		if (heap != null)
+			heap[(int) index] = (byte) ((heap[(int) index] & ~(0xF << shift)) | (arrows << shift));
+		else {
+			MappedByteBuffer chunk = chunks[(int) (index >>> CHUNK_BITS)];
+			int offset = (int) (index & CHUNK_MASK);
+			chunk.put(offset, (byte) ((chunk.get(offset) & ~(0xF << shift)) | (arrows << shift)));
+		}
+	}
+
+	/**
+	 * Returns the set of arrows in cell (i,j), as a bitwise or of DEL, MUT and INS.
+	 */
+	int get(int i, int j){
+		long nibble = i * stride + j;
+		int shift = (int) (nibble & 1) << 2;
+		long index = nibble >>> 1;
+		byte b;
+		if (heap != null)
+			b = heap[(int) index];
+		else
+			b = chunks[(int) (index >>> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+		return (b >>> shift) & 0xF;
+	}
+
+	/**
+	 * Does cell (i,j) contain the arrow (DEL, MUT or INS)? Same as A[i][j].contains(e) used to be.
+	 */
+	boolean contains(int i, int j, int arrow){
+		return (get(i, j) & arrow) != 0;
+	}
+}
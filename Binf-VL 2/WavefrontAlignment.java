@@ -0,0 +1,202 @@
+import java.util.Arrays;
+
+/**
+ * Wavefront alignment (WFA, Marco-Sola et al. 2021) for the unit scores of this program: O((|T|+|P|) * s) time instead of O(|T|*|P|),
+ * where s is the distance between the sequences (below). Milliseconds for two nearly identical long sequences; for unrelated ones
+ * it is slower than the normal matrix.
+ *
+ * WFA minimizes a penalty with free matches. With match +1, mismatch -1, indel -1, every alignment with X mismatches and G gaps
+ * has score (|T| + |P| - (4X + 3G)) / 2 (each column uses up one or two letters), so maximizing the score is minimizing
+ * the penalty 4X + 3G, mismatch 4, gap 3.
+ * The cells of D are grouped by diagonal k = j - i. M[s][k] is the furthest column j on diagonal k that an alignment with
+ * penalty s reaches. Wavefront s comes from wavefronts s-4 (a mismatch, same diagonal) and s-3 (a gap, neighbouring diagonals),
+ * then every diagonal is extended along matching letters for free. Done when diagonal |T|-|P| reaches column |T|.
+ * For the traceback all wavefronts are kept, O(s^2) memory; for the score only the last few.
+ * @author kehwan
+ *
+ */
+public class WavefrontAlignment {
+	static final int MISMATCH = 4;
+	static final int GAP = 3;
+	static final long MAX_CELLS = 1 << 27;	//offsets kept for the traceback at most (512MB)
+	private static final int NONE = Integer.MIN_VALUE / 2;
+
+	private final String T, P;
+	private final int m, n;
+	private final boolean[] match;	//match[a*128+b]: ASCII letters a of P and b of T score +1
+	private int[][] wavefront;		//wavefront[s][k - lo[s]], null if no alignment has penalty s
+	private int[] lo;
+	private int keep;				//wavefront s is at index s % keep, or at s if keep is 0 (all kept, for the traceback)
+	private long cells;
+
+	private WavefrontAlignment(String template, String probe){
+		T = template;
+		P = probe;
+		m = T.length();
+		n = P.length();
+		match = new boolean[128*128];
+		for (int a=0;a<128;a++)
+			for (int b=0;b<128;b++)
+				match[a*128 + b] = a == b || GlobalAlignment.s((char) a, (char) b) == 1;
+	}
+
+	/**
+	 * Score of the optimal alignments of template with probe. Only for unit scores (see BitParallel.unitScores).
+	 */
+	static int score(String template, String probe){
+		return new WavefrontAlignment(template, probe).run(false, null);
+	}
+
+	/**
+	 * One optimal alignment of template with probe. Only for unit scores (see BitParallel.unitScores).
+	 * @param alignment the columns are attached to this
+	 * @return score of the alignment, or Integer.MIN_VALUE if the sequences are so different that the wavefronts would need more than MAX_CELLS (alignment is empty then)
+	 */
+	static int align(String template, String probe, Alignment alignment){
+		return new WavefrontAlignment(template, probe).run(true, alignment);
+	}
+
+	private int run(boolean traceback, Alignment alignment){
+		keep = traceback ? 0 : MISMATCH + 1;	//without traceback, a ring of the last few
+		wavefront = new int[traceback ? 16 : keep][];
+		lo = new int[wavefront.length];
+		wavefront[0] = new int[]{extend(0, 0)};
+		lo[0] = 0;
+		int last = m - n;	//diagonal of (n,m)
+		int s = 0;
+		while (!reached(s, last)){
+			s++;
+			if (traceback && s == wavefront.length){
+				wavefront = Arrays.copyOf(wavefront, 2*s);
+				lo = Arrays.copyOf(lo, 2*s);
+			}
+			next(s);
+			if (traceback && cells > MAX_CELLS)
+				return Integer.MIN_VALUE;
+		}
+		if (traceback)
+			traceback(s, alignment);
+		return (m + n - s) / 2;
+	}
+
+	/**
+	 * Makes wavefront s from s-MISMATCH and s-GAP, and extends it.
+	 */
+	private void next(int s){
+		int x = index(s);
+		int[] mis = get(s - MISMATCH);
+		int[] gap = get(s - GAP);
+		if (mis == null && gap == null){
+			wavefront[x] = null;
+			return;
+		}
+		int misLo = mis == null ? 0 : lo[index(s - MISMATCH)];
+		int gapLo = gap == null ? 0 : lo[index(s - GAP)];
+		wavefront[x] = null;	//in the ring, this was an old one
+		int from = Integer.MAX_VALUE, to = Integer.MIN_VALUE;
+		if (mis != null){
+			from = misLo;
+			to = misLo + mis.length - 1;
+		}
+		if (gap != null){
+			from = Math.min(from, gapLo - 1);
+			to = Math.max(to, gapLo + gap.length);
+		}
+		from = Math.max(from, -n);
+		to = Math.min(to, m);
+		int[] M = new int[to - from + 1];
+		for (int k=from;k<=to;k++){
+			int j = Math.max(Math.max(
+					inside(offset(s - MISMATCH, k) + 1, k),		//mismatch: (i-1,j-1) on the same diagonal
+					inside(offset(s - GAP, k-1) + 1, k)),		//DEL: (i,j-1), diagonal k-1
+					inside(offset(s - GAP, k+1), k));			//INS: (i-1,j), diagonal k+1
+			M[k - from] = j == NONE ? NONE : extend(k, j);
+		}
+		wavefront[x] = M;
+		lo[x] = from;
+		cells += M.length;
+	}
+
+	/**
+	 * Follows diagonal k from column j as long as the letters match.
+	 */
+	private int extend(int k, int j){
+		int i = j - k;
+		while (i < n && j < m && matches(P.charAt(i), T.charAt(j))){
+			i++;
+			j++;
+		}
+		return j;
+	}
+
+	private boolean matches(char p, char t){
+		if (p < 128 && t < 128)
+			return match[p*128 + t];
+		return p == t || GlobalAlignment.s(p, t) == 1;
+	}
+
+	/**
+	 * Offset of wavefront s on diagonal k, NONE if it does not have one.
+	 */
+	private int offset(int s, int k){
+		int[] M = get(s);
+		if (M == null)
+			return NONE;
+		int from = lo[index(s)];
+		return k >= from && k < from + M.length ? M[k - from] : NONE;
+	}
+
+	/**
+	 * Column j on diagonal k if that is a cell of D, otherwise NONE.
+	 */
+	private int inside(int j, int k){
+		return j < 0 || j > m || j - k < 0 || j - k > n ? NONE : j;
+	}
+
+	private boolean reached(int s, int k){
+		return offset(s, k) == m;
+	}
+
+	private int[] get(int s){
+		return s < 0 ? null : wavefront[index(s)];
+	}
+
+	private int index(int s){
+		return keep == 0 ? s : s % keep;
+	}
+
+	/**
+	 * Walks back from (n,m) through the wavefronts, attaching the columns on the left. At each step the matches
+	 * at the end of the diagonal run come first, then the step that started it: DEL preferred, then MUT, then INS (as in alignSmall).
+	 */
+	private void traceback(int s, Alignment alignment){
+		int k = m - n;
+		int j = m;
+		while (s > 0){
+			int del = inside(offset(s - GAP, k-1) + 1, k);
+			int mut = inside(offset(s - MISMATCH, k) + 1, k);
+			int ins = inside(offset(s - GAP, k+1), k);
+			int start = Math.max(del, Math.max(mut, ins));	//where the run of matches began
+			for (; j > start; j--)
+				alignment.append(T.charAt(j-1), P.charAt(j-1 - k));
+			if (start == del){
+				alignment.append(T.charAt(j-1), '_');
+				j--;
+				k--;
+				s -= GAP;
+			}
+			else if (start == mut){
+				alignment.append(T.charAt(j-1), P.charAt(j-1 - k));
+				j--;
+				s -= MISMATCH;
+			}
+			else {
+				alignment.append('_', P.charAt(j - k - 1));
+				k++;
+				s -= GAP;
+			}
+		}
+		for (; j > 0; j--)	//the matches of wavefront 0
+			alignment.append(T.charAt(j-1), P.charAt(j-1 - k));
+	}
+}
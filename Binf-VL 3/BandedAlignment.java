@@ -0,0 +1,238 @@
+import java.util.Arrays;
+
+/**
+ * Global alignment that only looks at the cells near the diagonal of the matrix.
+ *
+ * For similar sequences the optimal path never gets far from the diagonal, so most of the n*m cells are wasted work.
+ * Here we number the diagonals d = j - i (d = 0 is the main diagonal, d = m-n is the one that ends in (n,m)) and only fill
+ * the cells with min(0,m-n)-w <= d <= max(0,m-n)+w. Cells outside the band count as minus infinity.
+ *
+ * Is the score from the band the optimal one? A path that leaves the band needs at least a certain number of indels,
+ * and then it can not have many match/mismatch columns left. Giving each of those the best score its residue could get
+ * yields an upper bound on the score of every path outside the band.
+ * If the band score reaches that bound, it is optimal. Otherwise w is doubled and we try again.
+ * At the latest when the band covers the whole matrix it is just the full dynamic programming.
+ *
+ * Near-identical sequences: O((n+m)*w) instead of O(n*m).
+ * @author kehwan
+ *
+ */
+public class BandedAlignment {
+	static final int INITIAL_WIDTH = 32;
+	static final long MAX_CELLS = 1 << 28;	//arrows kept for the traceback at most (256MB), wider bands go to hirschberg
+	private static final int MINUS_INFINITY = Integer.MIN_VALUE / 2;
+
+	/**
+	 * Score of the optimal global alignments of T with P. Same result as FASTA.AlignmentDistance.
+	 * @param T ... first sequence to align (top, columns)
+	 * @param P ... second sequence (left side, rows)
+	 * @param S ... substitution matrix
+	 * @param indel_cost ... score of an insertion or deletion (negative)
+	 * @return
+	 */
+	static int score(String T, String P, ScoringMatrix S, int indel_cost){
+		int m = T.length();
+		int n = P.length();
+		long[] bestP = bestSums(T, P, S, true);
+		long[] bestT = bestSums(T, P, S, false);
+
+		for (int w=INITIAL_WIDTH;;w*=2){
+			int dLo = Math.max(-n, Math.min(0, m-n) - w);
+			int dHi = Math.min(m, Math.max(0, m-n) + w);
+			int score = fill(T, P, S, indel_cost, dLo, dHi, null);
+			if (score >= outsideBound(n, m, dLo, dHi, bestP, bestT, indel_cost))
+				return score;
+		}
+	}
+
+	/**
+	 * Computes one optimal global alignment of T with P. Columns are attached to the right of alignment.
+	 * Needs one byte per cell in the band. If the band has to grow to the whole matrix or to more than MAX_CELLS cells,
+	 * falls back to GlobalAlignment.hirschberg (linear memory).
+	 * GlobalAlignment.S has to be set.
+	 * @param T ... template, goes on top of the alignment
+	 * @param P ... probe, goes in the bottom of the alignment
+	 * @param S ... substitution matrix
+	 * @param indel_cost ... score of an insertion or deletion (negative)
+	 * @param alignment ... the columns of the alignment are appended to this
+	 * @return score of the alignment
+	 */
+	static int align(String T, String P, ScoringMatrix S, int indel_cost, Alignment alignment){
+		int m = T.length();
+		int n = P.length();
+		long[] bestP = bestSums(T, P, S, true);
+		long[] bestT = bestSums(T, P, S, false);
+
+		for (int w=INITIAL_WIDTH;;w*=2){
+			int dLo = Math.max(-n, Math.min(0, m-n) - w);
+			int dHi = Math.min(m, Math.max(0, m-n) + w);
+			int W = dHi - dLo + 1;
+			if ((dLo == -n && dHi == m) || (long) (n+1) * W > MAX_CELLS)
+				return GlobalAlignment.hirschberg(T, P, alignment);	//band covers everything (no point in it) or is too large for the arrows
+
+			//first the score only, so we do not allocate the arrows for bands that turn out too narrow
+			int score = fill(T, P, S, indel_cost, dLo, dHi, null);
+			if (score >= outsideBound(n, m, dLo, dHi, bestP, bestT, indel_cost)){
+				byte[] arrows = new byte[(n+1) * W];
+				fill(T, P, S, indel_cost, dLo, dHi, arrows);
+				traceback(T, P, dLo, W, arrows, alignment);
+				return score;
+			}
+		}
+	}
+
+	/**
+	 * Fills out the band row by row. Row i is kept in an array indexed by k = j - i - dLo, so the
+	 * upper left neighbour of cell k is cell k of the row above, the upper neighbour is k+1, and the left one k-1 of the same row.
+	 * @param arrows if not null, gets the arrows of cell (i,k) at i*W+k, as in TracebackMatrix (DEL, MUT, INS bits)
+	 * @return D(n,m)
+	 */
+	private static int fill(String T, String P, ScoringMatrix S, int indel_cost, int dLo, int dHi, byte[] arrows){
+		int m = T.length();
+		int n = P.length();
+		int W = dHi - dLo + 1;
+		int[] above = new int[W+1];	//one more, for the upper neighbour of the last cell in the band
+		int[] row = new int[W+1];
+		above[W] = row[W] = MINUS_INFINITY;
+		byte[] codes = S.encode(P);
+		int[][] profile = S.profile(S.encode(T));
+
+		//Row 0: alignments of prefixes of the template with ""
+		for (int k=0;k<W;k++){
+			int j = dLo + k;
+			above[k] = (j >= 0 && j <= m) ? j * indel_cost : MINUS_INFINITY;
+			if (arrows != null && j > 0 && j <= m)
+				arrows[k] = (byte) TracebackMatrix.DEL;
+		}
+
+		for (int i=1;i<=n;i++){	//row i
+			int kFirst = Math.max(0, -i - dLo);		//column 0
+			int kLast = Math.min(W-1, m - i - dLo);	//column m
+			for (int k=0;k<kFirst;k++)
+				row[k] = MINUS_INFINITY;
+			for (int k=kLast+1;k<W;k++)
+				row[k] = MINUS_INFINITY;
+
+			int[] s_i = profile[codes[i-1]];	//scores of P[i] against the template
+			int k = kFirst;
+			if (i + dLo + k == 0){	//column 0 is in the band
+				row[k] = i * indel_cost;
+				if (arrows != null)
+					arrows[i*W + k] = (byte) TracebackMatrix.INS;
+				k++;
+			}
+			for (;k<=kLast;k++){	//cell (i, i+dLo+k)
+				int score_if_match = above[k] + s_i[i + dLo + k - 1];
+				int score_if_del = (k > 0 ? row[k-1] : MINUS_INFINITY) + indel_cost;
+				int score_if_ins = above[k+1] + indel_cost;
+				row[k] = Math.max(Math.max(score_if_match, score_if_del), score_if_ins);
+
+				if (arrows != null){
+					int a = 0;
+					if (score_if_match == row[k])
+						a |= TracebackMatrix.MUT;
+					if (score_if_ins == row[k])
+						a |= TracebackMatrix.INS;
+					if (score_if_del == row[k])
+						a |= TracebackMatrix.DEL;
+					arrows[i*W + k] = (byte) a;
+				}
+			}
+			int[] swap = above; above = row; row = swap;
+		}
+		return above[m - n - dLo];
+	}
+
+	/**
+	 * Follows one path of arrows from (n,m) back to (0,0), preferring DEL, then MUT, then INS like GlobalAlignment does.
+	 */
+	private static void traceback(String T, String P, int dLo, int W, byte[] arrows, Alignment alignment){
+		int i = P.length();
+		int j = T.length();
+		char[] top = new char[i+j];
+		char[] bottom = new char[i+j];
+		int c = i+j;
+		while (i > 0 || j > 0){
+			c--;
+			int a = arrows[i*W + j - i - dLo];
+			if ((a & TracebackMatrix.DEL) != 0){
+				top[c] = T.charAt(j-1);
+				bottom[c] = '_';
+				j--;
+			}
+			else if ((a & TracebackMatrix.MUT) != 0){
+				top[c] = T.charAt(j-1);
+				bottom[c] = P.charAt(i-1);
+				i--; j--;
+			}
+			else {
+				top[c] = '_';
+				bottom[c] = P.charAt(i-1);
+				i--;
+			}
+		}
+		for (; c < top.length; c++)
+			alignment.appendRight(top[c], bottom[c]);
+	}
+
+	/**
+	 * Upper bound on the score of any path from (0,0) to (n,m) that leaves the band dLo <= j-i <= dHi.
+	 * To get to diagonal d and back to diagonal m-n, the path needs at least |d| + |d-(m-n)| indels.
+	 * With k indels there are only c = (n+m-k)/2 match/mismatch columns left, and they can not score more than bestP[c] (or bestT[c]).
+	 * @return the bound, or Long.MIN_VALUE if the band is the whole matrix
+	 */
+	static long outsideBound(int n, int m, int dLo, int dHi, long[] bestP, long[] bestT, int indel_cost){
+		long bound = Long.MIN_VALUE;
+		if (dHi < m)
+			bound = Math.max(bound, pathBound(n, m, 2L*(dHi+1) - (m-n), bestP, bestT, indel_cost));
+		if (dLo > -n)
+			bound = Math.max(bound, pathBound(n, m, (m-n) - 2L*(dLo-1), bestP, bestT, indel_cost));
+		return bound;
+	}
+
+	/**
+	 * Best possible score of a path with at least kMin indels, i.e. at most (n+m-kMin)/2 match/mismatch columns.
+	 */
+	private static long pathBound(int n, int m, long kMin, long[] bestP, long[] bestT, int indel_cost){
+		long bound = Long.MIN_VALUE;
+		for (int c=0;c<=Math.min(n, m) && n+m-2L*c >= kMin;c++)
+			bound = Math.max(bound, Math.min(bestP[c], bestT[c]) + (n+m-2L*c) * indel_cost);
+		return bound;
+	}
+
+	/**
+	 * bestSums(...)[c] is the highest total score c match/mismatch columns could possibly have: every residue of one sequence
+	 * is given its best score against any residue of the other, and we add up the c largest of those.
+	 * @param ofProbe true: for the residues of P (each column uses a different one), false: for the residues of T
+	 * @return array with min(n,m)+1 entries, for c = 0...
+	 */
+	static long[] bestSums(String T, String P, ScoringMatrix S, boolean ofProbe){
+		String own = ofProbe ? P : T;
+		String other = ofProbe ? T : P;
+		boolean[] inOther = new boolean[256];
+		for (int x=0;x<other.length();x++)
+			inOther[other.charAt(x)] = true;
+
+		//best score of each residue against the other sequence
+		int[] bestOf = new int[256];
+		boolean[] known = new boolean[256];
+		int[] values = new int[own.length()];
+		for (int x=0;x<own.length();x++){
+			char a = own.charAt(x);
+			if (!known[a]){
+				bestOf[a] = Integer.MIN_VALUE / 2;
+				for (char b=0;b<256;b++)
+					if (inOther[b])
+						bestOf[a] = Math.max(bestOf[a], ofProbe ? S.d(a, b) : S.d(b, a));
+				known[a] = true;
+			}
+			values[x] = bestOf[a];
+		}
+		Arrays.sort(values);
+
+		long[] sums = new long[Math.min(T.length(), P.length()) + 1];
+		for (int c=1;c<sums.length;c++)
+			sums[c] = sums[c-1] + values[values.length - c];
+		return sums;
+	}
+}
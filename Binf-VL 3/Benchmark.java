@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Kommandozeilenprogramm: misst die Laufzeit der wichtigsten Schleifen, damit man merkt wenn etwas langsamer wird.
+ * Syntax: Benchmark [-data dir] [-titins file] [-length N] [-species N] [-warmup N] [-iterations N] [name...]
+ *
+ * Ohne Namen laufen alle Benchmarks (siehe cases()). Jeder wird erst -warmup mal ausgefuehrt (damit der JIT fertig ist),
+ * dann -iterations mal gemessen. Ausgegeben wird die mittlere Zeit pro Durchlauf, der Durchsatz
+ * (bei Alignments in Zellen pro Sekunde, GCUPS = 10^9 cell updates per second) und wie viel Speicher pro Durchlauf
+ * angelegt wurde (nur auf JVMs mit com.sun.management, sonst "?"). Der Speicher zaehlt nur fuer den Thread, der misst:
+ * was Worker-Threads anlegen (beim Fall treemaker der Thread-Pool von TreeMaker), fehlt darin. Die sind nach dem
+ * Durchlauf schon beendet, dann sagt die JVM fuer sie nichts mehr. Deshalb steht "(main thread)" dabei.
+ *
+ * Daten: sequence.fasta und blosum80.txt aus -data (default: aktuelles Verzeichnis), titins.fasta aus -titins
+ * (default: ../Binf-VL 2/titins.fasta), zufaellige Proteinsequenzen der Laenge -length (default 2000) und
+ * zufaellige Scores zwischen -species Spezies (default 2000) fuer Clustering und Neighbor-Joining.
+ *
+ * Kein JMH: die Projekte hier haben kein Build-File, das hier laeuft mit javac/java allein.
+ * Also keine Forks und keine Statistik, fuer Vergleiche vorher/nachher immer mit denselben Parametern auf derselben Maschine laufen lassen.
+ * @author kehwan
+ *
+ */
+public class Benchmark {
+	static int sink;	//results go here, so the JIT can not throw the work away
+
+	/**
+	 * One benchmark. run() does the work once and says how much it was.
+	 */
+	static abstract class Case {
+		final String name;
+		final String unit;	//what run() counts: "cells" gets reported as GCUPS
+
+		Case(String name, String unit){
+			this.name = name;
+			this.unit = unit;
+		}
+
+		abstract long run() throws IOException;
+	}
+
+	static String dataDir = ".";
+	static String titinsFile = ".." + File.separator + "Binf-VL 2" + File.separator + "titins.fasta";
+	static int length = 2000;
+	static int species = 2000;
+
+	public static void main(String[] args) throws IOException {
+		int warmup = 3;
+		int iterations = 5;
+		ArrayList<String> names = new ArrayList<String>();
+		for (int a=0;a<args.length;a++){
+			if (args[a].equals("-data") && a+1 < args.length)
+				dataDir = args[++a];
+			else if (args[a].equals("-titins") && a+1 < args.length)
+				titinsFile = args[++a];
+			else if (args[a].equals("-length") && a+1 < args.length)
+				length = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-species") && a+1 < args.length)
+				species = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-warmup") && a+1 < args.length)
+				warmup = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-iterations") && a+1 < args.length)
+				iterations = Integer.parseInt(args[++a]);
+			else
+				names.add(args[a]);
+		}
+
+		for (Case c: cases()){
+			if (!names.isEmpty() && !names.contains(c.name))
+				continue;
+			for (int k=0;k<warmup;k++)
+				c.run();
+
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			long work = 0;
+			for (int k=0;k<iterations;k++)
+				work += c.run();
+			long nanos = System.nanoTime() - start;
+			long allocated = allocatedBytes() - allocatedBefore;
+
+			double seconds = nanos / 1e9;
+			String throughput = c.unit.equals("cells") ?
+					String.format("%8.3f GCUPS", work / seconds / 1e9) :
+					String.format("%12.1f %s/s", work / seconds, c.unit);
+			String allocation = allocatedBefore < 0 ? "? MB/op, ? MB/s" :
+					String.format("%.1f MB/op, %.1f MB/s (main thread)", allocated / 1e6 / iterations, allocated / 1e6 / seconds);
+			System.out.println(String.format("%-20s %10.3f ms/op  %s  %s", c.name, nanos / 1e6 / iterations, throughput, allocation));
+		}
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * All benchmarks, in the order they run.
+	 */
+	static ArrayList<Case> cases() throws IOException{
+		final ScoringMatrix S = new ScoringMatrix(dataDir + File.separator + "blosum80.txt");
+		GlobalAlignment.S = S;
+		final String fasta = dataDir + File.separator + "sequence.fasta";
+		final ArrayList<String> proteins = FASTA.readAllSequences(fasta);
+		final Sequence[] synthetic = {random(S, length, 1), random(S, length, 2)};
+		final String syntheticT = synthetic[0].toString();
+		final String syntheticP = synthetic[1].toString();
+		ArrayList<Case> cases = new ArrayList<Case>();
+
+		cases.add(new Case("distance-proteins", "cells"){	//all pairs of sequence.fasta, like TreeMaker
+			long run(){
+				long cells = 0;
+				for (int x=0;x<proteins.size();x++)
+					for (int y=x+1;y<proteins.size();y++){
+						sink += FASTA.AlignmentDistance(proteins.get(x), proteins.get(y), S);
+						cells += (long) proteins.get(x).length() * proteins.get(y).length();
+					}
+				return cells;
+			}
+		});
+		cases.add(new Case("distance-synthetic", "cells"){
+			long run(){
+				sink += FASTA.AlignmentDistance(syntheticT, syntheticP, S);
+				return (long) length * length;
+			}
+		});
+		cases.add(new Case("distance-titins", "cells"){	//the two titins from Binf-VL 2, about 1.2*10^9 cells
+			long run() throws IOException{
+				ArrayList<Sequence> titins = FASTA.readSequences(titinsFile, S);
+				sink += FASTA.AlignmentDistance(titins.get(0), titins.get(1), S);
+				return (long) titins.get(0).length() * titins.get(1).length();
+			}
+		});
+		cases.add(new Case("fill-score", "cells"){	//GlobalAlignment -onlyScore
+			long run() throws IOException{
+				sink += GlobalAlignment.fill(synthetic[0], synthetic[1], false);
+				return (long) length * length;
+			}
+		});
+		cases.add(new Case("fill-traceback", "cells"){	//GlobalAlignment, with the traceback matrix
+			long run() throws IOException{
+				sink += GlobalAlignment.fill(synthetic[0], synthetic[1], true);
+				GlobalAlignment.A = null;
+				return (long) length * length;
+			}
+		});
+		cases.add(new Case("matrix-d", "lookups"){
+			long run(){
+				int lookups = 0;
+				int rows = Math.min(100, syntheticP.length());
+				for (int j=0;j<syntheticT.length();j++)
+					for (int i=0;i<rows;i++){
+						sink += S.d(syntheticT.charAt(j), syntheticP.charAt(i));
+						lookups++;
+					}
+				return lookups;
+			}
+		});
+		cases.add(new Case("read-strings", "bytes"){	//FASTA.readAllSequences: FASTAReader, then one String per sequence
+			long run() throws IOException{
+				sink += FASTA.readAllSequences(titinsFile).size();
+				return new File(titinsFile).length();
+			}
+		});
+		cases.add(new Case("read-sequences", "bytes"){
+			long run() throws IOException{
+				sink += FASTA.readSequences(titinsFile, S).size();
+				return new File(titinsFile).length();
+			}
+		});
+		final DistanceMatrix scores = new DistanceMatrix(species);
+		Random random = new Random(3);
+		for (int x=0;x<species;x++)
+			for (int y=0;y<x;y++)
+				scores.set(x, y, random.nextInt(2000));
+		cases.add(new Case("clustering", "merges"){	//TreeMaker's part after the alignments, on random scores of -species species
+			long run(){
+				Clustering tree = Clustering.averageLinkage(new DistanceMatrix(scores), true);
+				sink += tree.score[0];
+				return species - 1;
+			}
+		});
+		final int[] self = new int[species];
+		Arrays.fill(self, 2000);
+		cases.add(new Case("neighbor-joining", "joins"){	//TreeMaker -nj after the alignments, same scores
+			long run(){
+				NeighborJoining tree = NeighborJoining.fromScores(scores, self);
+				sink += tree.root[0];
+				return species - 3;
+			}
+		});
+		cases.add(new Case("treemaker", "trees"){	//whole program on sequence.fasta, output thrown away
+			long run() throws IOException{
+				PrintStream out = System.out;
+				System.setOut(new PrintStream(new OutputStream(){
+					public void write(int b){}
+					public void write(byte[] b, int off, int len){}
+				}));
+				try {
+					TreeMaker.main(new String[] {fasta, dataDir + File.separator + "blosum80.txt"});
+				} finally {
+					System.setOut(out);
+				}
+				return 1;
+			}
+		});
+		return cases;
+	}
+
+	/**
+	 * Random protein sequence (the 20 amino acids, all equally likely). Same seed, same sequence.
+	 */
+	static Sequence random(ScoringMatrix S, int length, long seed){
+		String aminoAcids = "ARNDCQEGHILKMFPSTWYV";
+		Random random = new Random(seed);
+		byte[] codes = new byte[length];
+		for (int x=0;x<length;x++)
+			codes[x] = S.code(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+		return new Sequence("random " + seed, codes, S);
+	}
+
+	/**
+	 * Bytes allocated by this thread so far (not by the worker threads it starts), or -1 if the JVM does not tell.
+	 */
+	static long allocatedBytes(){
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Hierarchical clustering (average linkage) of n species by their pairwise scores. Higher score = more closely related.
+ * The two most closely related clusters a and b are merged into ab, and the score of another cluster x to ab is the mean of
+ * its scores to a and b: (D(x,a)+D(x,b))/2 as in the lecture (WPGMA), or weighted by cluster size (UPGMA).
+ * Integer arithmetic, rounded towards 0 like the old TreeMaker loop.
+ *
+ * Nearest-neighbour chain instead of searching the whole table for the best pair before every merge:
+ * start a chain anywhere, keep appending the best partner of the last cluster in the chain, until two clusters are each other's best partner.
+ * Merge those, and continue with what is left of the chain. Both linkages are "reducible" (the merged cluster is never closer to x
+ * than a or b was), so the chain stays valid after a merge and we get the same tree as the greedy way. O(n^2) time, and the
+ * scores of the merged clusters overwrite those of a, so no memory besides the DistanceMatrix.
+ *
+ * The merges come out of the chain in a different order, so at the end they are sorted by score, best first, which is the order
+ * the greedy way would find them in.
+ * @author kehwan
+ *
+ */
+public class Clustering {
+	final int n;				//number of species (leaves). Clusters 0...n-1 are the species
+	final int[] first, second;	//merge k joins the clusters first[k] < second[k] into cluster n+k
+	final int[] score;			//score of the two clusters at merge k
+
+	private Clustering(int n){
+		this.n = n;
+		first = new int[Math.max(n-1, 0)];
+		second = new int[first.length];
+		score = new int[first.length];
+	}
+
+	/**
+	 * Clusters the species of D.
+	 * @param D pairwise scores. Gets overwritten (used as work space).
+	 * @param weighted true: plain mean of the two clusters (WPGMA, like the lecture), false: mean over all the species in them (UPGMA)
+	 * @return the merges, best first
+	 */
+	static Clustering averageLinkage(DistanceMatrix D, boolean weighted){
+		int n = D.size();
+		Clustering chainOrder = new Clustering(n);	//merges in the order the chain finds them
+		int[] cluster = new int[n];		//cluster in row s of D (rows of merged clusters are reused)
+		int[] size = new int[n];		//number of species in it
+		boolean[] active = new boolean[n];
+		for (int s=0;s<n;s++){
+			cluster[s] = s;
+			size[s] = 1;
+			active[s] = true;
+		}
+
+		int[] chain = new int[n];
+		int top = 0;	//number of rows in the chain
+		int next = 0;	//candidate for a new chain
+		for (int k=0;k<n-1;k++){
+			while (true){
+				if (top == 0){
+					while (!active[next])
+						next++;
+					chain[top++] = next;
+				}
+				int a = chain[top-1];
+				//best partner of a. On a tie, the one before a in the chain, so the chain can not go in circles
+				int best = top > 1 ? chain[top-2] : -1;
+				int bestScore = best >= 0 ? D.get(a, best) : Integer.MIN_VALUE;
+				for (int x=0;x<n;x++)
+					if (active[x] && x != a && (best < 0 || D.get(a, x) > bestScore)){
+						best = x;
+						bestScore = D.get(a, x);
+					}
+				if (top > 1 && best == chain[top-2]){
+					//a and best are each other's best partner: merge them into row min(a,best)
+					top -= 2;
+					int keep = Math.min(a, best);
+					int drop = Math.max(a, best);
+					active[drop] = false;
+					for (int x=0;x<n;x++)
+						if (active[x] && x != keep){
+							long sum = weighted ?
+									(long) D.get(x, keep) + D.get(x, drop) :
+									(long) size[keep] * D.get(x, keep) + (long) size[drop] * D.get(x, drop);
+							D.set(x, keep, (int) (sum / (weighted ? 2 : size[keep] + size[drop])));
+						}
+					chainOrder.first[k] = cluster[a];
+					chainOrder.second[k] = cluster[best];
+					chainOrder.score[k] = bestScore;
+					cluster[keep] = n + k;
+					size[keep] += size[drop];
+					break;
+				}
+				chain[top++] = best;
+			}
+		}
+		return chainOrder.sorted();
+	}
+
+	/**
+	 * Same merges, ordered by score, best first, and the clusters renumbered accordingly.
+	 * Stable sort: a merge never has a better score than the merges that made its clusters, and if it is a tie, those came first in the chain, too.
+	 */
+	private Clustering sorted(){
+		Integer[] order = new Integer[first.length];
+		for (int k=0;k<order.length;k++)
+			order[k] = k;
+		Arrays.sort(order, new Comparator<Integer>(){
+			public int compare(Integer x, Integer y){
+				return score[x] > score[y] ? -1 : score[x] < score[y] ? 1 : 0;
+			}
+		});
+		int[] newId = new int[n + first.length];
+		for (int c=0;c<n;c++)
+			newId[c] = c;
+		for (int q=0;q<order.length;q++)
+			newId[n + order[q]] = n + q;
+
+		Clustering sorted = new Clustering(n);
+		for (int q=0;q<order.length;q++){
+			int x = newId[first[order[q]]];
+			int y = newId[second[order[q]]];
+			sorted.first[q] = Math.min(x, y);
+			sorted.second[q] = Math.max(x, y);
+			sorted.score[q] = score[order[q]];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Writes the merges the way TreeMaker always did, e.g. "(1,3) (0,2) (13,02) ".
+	 * A cluster is written as the numbers of its species, in the order they were merged (older cluster first).
+	 * @param out
+	 * @throws IOException
+	 */
+	void print(Writer out) throws IOException{
+		int[] stack = new int[n];
+		for (int k=0;k<first.length;k++){
+			out.write('(');
+			writeCluster(first[k], stack, out);
+			out.write(',');
+			writeCluster(second[k], stack, out);
+			out.write(") ");
+		}
+	}
+
+	/**
+	 * Writes the species of cluster c, left to right. Explicit stack, a tree of thousands of species can be that deep.
+	 */
+	private void writeCluster(int c, int[] stack, Writer out) throws IOException{
+		int top = 0;
+		stack[top++] = c;
+		while (top > 0){
+			c = stack[--top];
+			if (c < n)
+				out.write(Integer.toString(c));
+			else {
+				stack[top++] = second[c - n];	//right part after the left one
+				stack[top++] = first[c - n];
+			}
+		}
+	}
+}
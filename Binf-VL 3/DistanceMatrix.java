@@ -0,0 +1,56 @@
+/**
+ * Symmetric n x n matrix of ints without a diagonal, e.g. the pairwise alignment scores of n sequences (see TreeMaker).
+ * Only the lower triangle is stored, in one flat array: (i,j) with i > j is at i*(i-1)/2 + j.
+ * Half the memory of an int[n][n] and no object per row or per entry. n can be up to about 65000.
+ * @author kehwan
+ *
+ */
+public class DistanceMatrix {
+	private final int n;
+	private final int[] values;
+
+	/**
+	 * All entries 0.
+	 * @param n number of rows (and columns)
+	 */
+	DistanceMatrix(int n){
+		if ((long) n * (n-1) / 2 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many rows for a DistanceMatrix: " + n);
+		this.n = n;
+		values = new int[(int) ((long) n * (n-1) / 2)];
+	}
+
+	/**
+	 * Copy of other.
+	 */
+	DistanceMatrix(DistanceMatrix other){
+		n = other.n;
+		values = other.values.clone();
+	}
+
+	/**
+	 * Number of rows.
+	 */
+	public int size(){
+		return n;
+	}
+
+	/**
+	 * Entry (i,j), same as (j,i). i and j have to be different.
+	 */
+	public int get(int i, int j){
+		return values[index(i, j)];
+	}
+
+	/**
+	 * Sets entry (i,j) and with it (j,i). i and j have to be different.
+	 */
+	public void set(int i, int j, int value){
+		values[index(i, j)] = value;
+	}
+
+	private static int index(int i, int j){
+		//i*(i-1) can overflow an int for large i, but it is below 2^32, so the unsigned shift gets the half right
+		return i > j ? (i*(i-1) >>> 1) + j : (j*(j-1) >>> 1) + i;
+	}
+}
@@ -1,5 +1,3 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -12,47 +10,77 @@ import java.util.ArrayList;
  */
 abstract public class FASTA {
 	public int laenge;
+	static final int indel_cost = -1;	//score of an insertion or deletion in AlignmentDistance
 	/**
 	 * Reads all sequences in the file into memory at once.
 	 * Creates an array of strings. Will treat sequences as ascii strings. Warning: assumes upper case with protein!
 	 * Index 0 is the first sequence in the file, index 1 is the second, etc. Names are not saved.
+	 * To go through a large file one sequence at a time, use FASTAReader directly.
 	 * @param filename File to read sequences from.
 	 * @return String-Array with the sequences.
 	 */
-	//TODO: Correct fasta parser
-	
 	static ArrayList<String> readAllSequences(String filename) throws IOException{
-		//Read in the first sequence in the fasta file (first command line argument) into buffer and the second into P
-		//(Sequences are just ascii strings here)
-		//TODO: A correct fasta parser.
-		
-		BufferedReader source = new BufferedReader(new FileReader(filename));
+		FASTAReader source = new FASTAReader(filename);
 		ArrayList<String> sequences = new ArrayList<String>();
-		String line = source.readLine();
-		
-		do {
-			StringBuilder buffer = new StringBuilder();
-			
-			//Skip to beginning of the first sequence (or to the end of file, if no sequence)
-			while (line != null && (line.length() == 0 || line.charAt(0) != '>'))
-				line = source.readLine();
-			//now line should contain the comment for a sequence 
-				
-			//Read until it is over (blank line or >) 
-			while((line = source.readLine()) != null && line.length() != 0 && line.charAt(0) != '>')
-				buffer.append(line);
-			
-			//and save the sequence
-			if (buffer.length() > 0)
-				sequences.add(buffer.toString());
-			
-		} while (source.ready()); //repeat if there is more in the file
+		while (source.hasNext())
+			sequences.add(source.next().toString());
+		source.close();
 		
+		return sequences;
+	}
+	
+	/**
+	 * Reads all sequences in the file into memory at once, with their headers.
+	 * Same as readAllSequences, but the residues go straight into the codes of the alphabet of S (see Sequence),
+	 * without making a String per sequence. Aborts if a residue is not in S (like ScoringMatrix.encode).
+	 * @param filename File to read sequences from.
+	 * @param S Scoring matrix, for the alphabet.
+	 * @return the sequences, index 0 is the first one in the file.
+	 */
+	static ArrayList<Sequence> readSequences(String filename, ScoringMatrix S) throws IOException{
+		FASTAReader source = new FASTAReader(filename);
+		ArrayList<Sequence> sequences = new ArrayList<Sequence>();
+		while (source.hasNext()){
+			FASTAReader.Record record = source.next();
+			byte[] codes = new byte[record.length];
+			for (int x=0; x<record.length; x++)
+				codes[x] = S.code((char) (record.residues[x] & 0xff));
+			sequences.add(new Sequence(record.header, codes, S));
+		}
 		source.close();
 		
 		return sequences;
 	}
 	
+	/**
+	 * Reads only the sequences with the given names, in that order, through the index of the file (see FASTAIndex).
+	 * The index is made the first time and saved next to the file; after that, no matter how big the file is,
+	 * this reads nothing but the index and the requested sequences.
+	 * @param filename File to read sequences from.
+	 * @param names Names of the sequences: header up to the first blank.
+	 * @param S Scoring matrix, for the alphabet.
+	 * @return the sequences, with the names as headers.
+	 * @throws IOException if a name is not in the file, or the file can not be indexed
+	 */
+	static ArrayList<Sequence> readSequences(String filename, String[] names, ScoringMatrix S) throws IOException{
+		FASTAIndex index = FASTAIndex.open(filename);
+		ArrayList<Sequence> sequences = new ArrayList<Sequence>();
+		for (String name: names){
+			byte[] residues = index.fetch(name);
+			if (residues == null){
+				index.close();
+				throw new IOException("No sequence named " + name + " in " + filename);
+			}
+			byte[] codes = new byte[residues.length];
+			for (int x=0; x<residues.length; x++)
+				codes[x] = S.code((char) (residues[x] & 0xff));
+			sequences.add(new Sequence(name, codes, S));
+		}
+		index.close();
+		
+		return sequences;
+	}
+	
 	/**
 	 * Aligns two sequences and returns their distance. O(max(|S1|,|S2|)) space.
 	 * @param T ... first sequence to align, as a string (one-letter code amino acid sequence)
@@ -61,10 +89,37 @@ abstract public class FASTA {
 	 * @return
 	 */
 	static int AlignmentDistance(String T, String P, ScoringMatrix S){
-		final int indel_cost = -1;
+		return AlignmentDistance(S.encode(T), S.encode(P), S);
+	}
+	
+	/**
+	 * Same as AlignmentDistance(String, String, ScoringMatrix), for sequences from readSequences. Nothing to check or convert.
+	 * @param T ... first sequence to align
+	 * @param P ... second sequence
+	 * @param S ... substitution matrix
+	 * @return
+	 */
+	static int AlignmentDistance(Sequence T, Sequence P, ScoringMatrix S){
+		return AlignmentDistance(T.codes(S), P.codes(S), S);
+	}
+	
+	/**
+	 * Aligns two encoded sequences (see ScoringMatrix.encode) and returns their distance.
+	 * @param t ... codes of the first sequence
+	 * @param p ... codes of the second sequence
+	 * @param S ... substitution matrix the codes belong to
+	 * @return
+	 */
+	private static int AlignmentDistance(byte[] t, byte[] p, ScoringMatrix S){
+		//Same result, but faster (see StripedKernel). The loop below is the fallback.
+		if (StripedKernel.ENABLED)
+			return StripedKernel.score(t, p, S, indel_cost);
+		
+		int m = t.length;
+		int n = p.length;
 		
-		int m = T.length();
-		int n = P.length();
+		//Get the scores of every residue against all of T (query profile)
+		int[][] profile = S.profile(t);
 		
 		//Calculate scores of the optimal alignments, and the backtracking information.
 		int[][] D = new int[n+1][];
@@ -81,6 +136,7 @@ abstract public class FASTA {
 			D[i] = new int[m+1];
 			//Column 0 is for alignments of prefixes of the probe with ""
 			D[i][0] = i * indel_cost;
+			int[] s_i = profile[p[i-1]];	//scores of P[i] against t1...tm
 			
 			//Fill out row i
 			for (int j=1;j<=m;j++){	//cell (i,j)
@@ -89,7 +145,7 @@ abstract public class FASTA {
 				// ~~~ optimal alignment of t1...tj-1~~~   A
 				// ~~~          with        p1...pi-1~~~   T
 				// This corresponds to T[j] having been mutated into P[i] during the evolution of T into P.
-				int score_if_match = D[i-1][j-1] + S.d(P.charAt(i/*string index starts at 0*/-1), T.charAt(j/*string index starts at 0*/-1));
+				int score_if_match = D[i-1][j-1] + s_i[j/*index starts at 0*/-1];
 				
 				//2: Possibility 2 is:
 				// ~~~ optimal alignment of t1...tj-1~~~   A
@@ -117,12 +173,39 @@ abstract public class FASTA {
 
 	
 	/**
-	 * Constructor. Not in use because all methods are class methods
-	 * Open FASTA file on Disk.
-	 * @param filename
-	 *
-	FASTAReader(String filename) throws FileNotFoundException{
-		source = new BufferedReader(new FileReader(filename));
+	 * Same as AlignmentDistance(T, P, S), but the matrix is filled by several threads along the anti-diagonals (see Wavefront).
+	 * Worth it for long sequences only.
+	 * @param T ... first sequence to align
+	 * @param P ... second sequence
+	 * @param S ... substitution matrix
+	 * @param threads ... number of threads
+	 * @return
+	 */
+	static int AlignmentDistance(String T, String P, ScoringMatrix S, int threads){
+		if (threads <= 1)
+			return AlignmentDistance(T, P, S);
+		return Wavefront.fill(T, P, S, indel_cost, null, threads);
+	}
+	
+	/**
+	 * Same as AlignmentDistance(T, P, S, threads), for sequences from readSequences.
+	 */
+	static int AlignmentDistance(Sequence T, Sequence P, ScoringMatrix S, int threads){
+		if (threads <= 1)
+			return AlignmentDistance(T, P, S);
+		return Wavefront.fill(T.codes(S), P.codes(S), S, indel_cost, null, threads);
 	}
-	*/
+	
+	/**
+	 * Same as AlignmentDistance(T, P, S), but only fills the cells near the diagonal as long as that provably gives the optimal score (see BandedAlignment).
+	 * Much faster for similar sequences, a bit slower (at most about twice) for unrelated ones.
+	 * @param T ... first sequence to align
+	 * @param P ... second sequence
+	 * @param S ... substitution matrix
+	 * @return
+	 */
+	static int BandedAlignmentDistance(String T, String P, ScoringMatrix S){
+		return BandedAlignment.score(T, P, S, indel_cost);
+	}
+
 }
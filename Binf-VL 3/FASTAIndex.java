@@ -0,0 +1,260 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Index of a FASTA file, for reading single sequences by name without parsing the whole file.
+ * Same as the .fai files of samtools faidx, so either program can make them: one line per sequence with
+ * name (the header up to the first blank), number of residues, byte offset of the first residue, residues per line, bytes per line.
+ * Since all lines of a sequence except the last one must have the same length, the position of every residue can be calculated,
+ * and fetch() is one seek and one read.
+ *
+ * open() uses file.fai if it is there and not older than the FASTA file, and otherwise makes it (once).
+ * @author kehwan
+ *
+ */
+public class FASTAIndex {
+	/**
+	 * Where a sequence is in the file.
+	 */
+	static class Entry {
+		final int length;		//residues
+		final long offset;		//of the first residue
+		final int lineBases;	//residues per line
+		final int lineWidth;	//bytes per line, with the line end
+
+		Entry(int length, long offset, int lineBases, int lineWidth){
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+	}
+
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private final RandomAccessFile fasta;
+
+	private FASTAIndex(String filename) throws IOException{
+		fasta = new RandomAccessFile(filename, "r");
+	}
+
+	/**
+	 * Index of the FASTA file filename: read from filename.fai, or made and saved there if it does not exist or is out of date.
+	 * @param filename FASTA file
+	 * @throws IOException if the file has lines of different lengths within a sequence, so it can not be indexed
+	 */
+	static FASTAIndex open(String filename) throws IOException{
+		File fai = new File(filename + ".fai");
+		FASTAIndex index = new FASTAIndex(filename);
+		if (fai.exists() && fai.lastModified() >= new File(filename).lastModified()){
+			try {
+				index.read(fai);
+				return index;
+			} catch (IOException e) {
+				//damaged file: make a new one
+				index.entries.clear();
+			}
+		}
+		index.build(filename);
+		try {
+			index.write(fai);
+		} catch (IOException e) {
+			//read-only directory: then we just use it this time
+		}
+		return index;
+	}
+
+	/**
+	 * Number of sequences.
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 * Number of residues of the sequence with the given name, -1 if there is none.
+	 */
+	public int length(String name){
+		Entry e = entries.get(name);
+		return e == null ? -1 : e.length;
+	}
+
+	/**
+	 * Reads the sequence with the given name.
+	 * @param name header up to the first blank
+	 * @return the residues (ASCII letters), or null if there is no such sequence
+	 */
+	byte[] fetch(String name) throws IOException{
+		Entry e = entries.get(name);
+		if (e == null)
+			return null;
+		byte[] residues = new byte[e.length];
+		if (e.length == 0)
+			return residues;
+		long lines = (e.length - 1) / e.lineBases;
+		byte[] raw = new byte[(int) (lines * e.lineWidth + (e.length - 1) % e.lineBases + 1)];
+		fasta.seek(e.offset);
+		fasta.readFully(raw);
+		for (int line=0, x=0;x<e.length;line++, x+=e.lineBases)
+			System.arraycopy(raw, line * e.lineWidth, residues, x, Math.min(e.lineBases, e.length - x));
+		return residues;
+	}
+
+	/**
+	 * Closes the FASTA file.
+	 */
+	void close() throws IOException{
+		fasta.close();
+	}
+
+	/**
+	 * Goes through the FASTA file once and notes where each sequence is.
+	 * If two sequences have the same name, the first one counts (as in samtools).
+	 */
+	private void build(String filename) throws IOException{
+		InputStream source = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+		long pos = 0;			//position in the file
+		String name = null;		//of the current sequence, null before the first header
+		int length = 0;
+		long offset = 0;
+		int lineBases = 0, lineWidth = 0;
+		boolean shortLine = false;	//the current sequence had a line shorter than the first one, so that was the last one
+		boolean blank = false;		//the current sequence had a blank line, so it is over
+		StringBuilder header = new StringBuilder();
+
+		int c = source.read();
+		while (c != -1){
+			long lineStart = pos;
+			if (c == '>'){
+				if (name != null)
+					add(name, length, offset, lineBases, lineWidth);
+				header.setLength(0);
+				while ((c = source.read()) != -1 && c != '\n'){
+					pos++;
+					if (c != '\r')
+						header.append((char) c);
+				}
+				pos++;
+				if (c != -1)
+					pos++;
+				name = header.toString().trim().split("[ \\t]", 2)[0];
+				length = 0;
+				offset = pos;
+				lineBases = lineWidth = 0;
+				shortLine = blank = false;
+				c = source.read();
+				continue;
+			}
+
+			//a sequence line: count its residues and bytes
+			int bases = 0;
+			for (; c != -1 && c != '\n'; c = source.read()){
+				pos++;
+				if (c != '\r')
+					bases++;
+			}
+			if (c == '\n')
+				pos++;
+			int width = (int) (pos - lineStart);
+			c = source.read();
+
+			if (name == null)
+				continue;	//before the first header, ignored
+			if (bases == 0){
+				blank = true;
+				continue;
+			}
+			if (blank || shortLine || (lineBases > 0 && (bases > lineBases || (bases == lineBases && width != lineWidth))))
+				throw new IOException(filename + ": sequence " + name + " has lines of different lengths, can not be indexed");
+			if (lineBases == 0){
+				offset = lineStart;
+				lineBases = bases;
+				lineWidth = width;
+			}
+			else if (bases < lineBases)
+				shortLine = true;
+			length += bases;
+		}
+		if (name != null)
+			add(name, length, offset, lineBases, lineWidth);
+		source.close();
+	}
+
+	private void add(String name, int length, long offset, int lineBases, int lineWidth){
+		if (!entries.containsKey(name))
+			entries.put(name, new Entry(length, offset, lineBases, lineWidth));
+	}
+
+	/**
+	 * Reads a .fai file: per line name, length, offset, residues per line, bytes per line, separated by tabs.
+	 * @throws IOException if a line does not have these five fields
+	 */
+	private void read(File fai) throws IOException{
+		BufferedReader source = new BufferedReader(new FileReader(fai));
+		try {
+			String line;
+			while ((line = source.readLine()) != null){
+				if (line.length() == 0)
+					continue;
+				String[] fields = line.split("\t");
+				if (fields.length < 5)
+					throw new IOException(fai + ": not an index line: " + line);
+				try {
+					Entry e = new Entry(Integer.parseInt(fields[1]), Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]));
+					if (e.length < 0 || e.offset < 0 || (e.length > 0 && (e.lineBases <= 0 || e.lineWidth < e.lineBases)))
+						throw new IOException(fai + ": not an index line: " + line);
+					add(fields[0], e.length, e.offset, e.lineBases, e.lineWidth);
+				} catch (NumberFormatException e) {
+					throw new IOException(fai + ": not an index line: " + line);
+				}
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	private void write(File fai) throws IOException{
+		//in the order of the file, like samtools
+		String[] names = new String[entries.size()];
+		int x = 0;
+		for (String name: entries.keySet())
+			names[x++] = name;
+		Arrays.sort(names, new Comparator<String>(){
+			public int compare(String a, String b){
+				long pa = entries.get(a).offset, pb = entries.get(b).offset;
+				return pa < pb ? -1 : pa > pb ? 1 : 0;
+			}
+		});
+		//into a temporary file first, so there is never a half written index under the real name
+		File temp = new File(fai.getPath() + ".tmp");
+		Writer out = new BufferedWriter(new FileWriter(temp));
+		boolean done = false;
+		try {
+			for (String name: names){
+				Entry e = entries.get(name);
+				out.write(name + "\t" + e.length + "\t" + e.offset + "\t" + e.lineBases + "\t" + e.lineWidth + "\n");
+			}
+			done = true;
+		} finally {
+			out.close();
+			if (!done)
+				temp.delete();
+		}
+		fai.delete();
+		if (!temp.renameTo(fai)){
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + fai);
+		}
+	}
+}
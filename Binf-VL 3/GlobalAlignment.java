@@ -1,4 +1,7 @@
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.*;
 /**
  * For a course ('Grundlagen der Bioinformatik')
@@ -6,6 +9,8 @@ import java.util.*;
  * Returns alignment score and, optionally all optimal alignments.
  * 
  * Score computation is O(|S|+|T|) memory and O(|S|*|T|) time. Alignment computation needs at least quadratic memory.  
+ * With -linearSpace, one optimal alignment is computed in O(|S|+|T|) memory instead (Hirschberg's divide and conquer, about twice the time).
+ * With -banded, only the cells near the diagonal are filled out (see BandedAlignment). Fast for similar sequences.
  * 
  * The score of an alignment is:
  * -1 for a single position insertion or deletion
@@ -40,49 +45,121 @@ public class GlobalAlignment {
 	static String T;	//t1...tm. The first of two sequences to align. Goes on top of alignment. The 'Template'.
 	static String P;	//p1...pn. The second of two sequences to align. Goes in bottom of alignment. The 'Probe'
 	static int[][] D;	//Score matrix. D(i,j) = Score of highest scoring alignment of t1..tj with p1...pj
-	static EnumSet<EditscriptEvent>[][] A;	//A(i,j) is a subset of {MUT, INS, DEL}. 
+	static TracebackMatrix A;	//A(i,j) is a subset of {MUT, INS, DEL}. Packed into half a byte per cell.
 	
-	//Used by the function that prints the optimal alignments using the data from A
-	static int i;
-	static int j;
 	static Alignment alignment;
 	
 	public static void main(String[] args) throws IOException{
 		boolean makeAlignments;
+		boolean linearSpace = false;
+		boolean banded = false;
+		int threads = 1;
+		long maxAlignments = Long.MAX_VALUE;
+		String[] names = null;
 		
 		if (args.length < 2){
 			System.out.println("Parameter 1 required: Name of a FASTA file with two sequences.");
 			System.out.println("Parameter 2 required: Name of a file with a substiution matrix, BLOSUM format.");
 			System.out.println("Optional third parameter -onlyScore disables alignment computation (uses less memory)");
+			System.out.println("Optional third parameter -linearSpace computes only one optimal alignment, in linear memory");
+			System.out.println("Optional parameter -threads N fills the matrix with N threads (not with -linearSpace)");
+			System.out.println("Optional parameter -banded only looks near the diagonal, fast for similar sequences. Computes only one optimal alignment");
+			System.out.println("Optional parameter -maxAlignments N stops after N optimal alignments");
+			System.out.println("Optional parameter -names A,B aligns the sequences named A and B instead of the first two (reads them through the index file.fai, see FASTAIndex)");
 			System.exit(0);
 		}
 		
-		if (args.length	== 3 && args[2].equals("-onlyScore"))
-			makeAlignments = false;
-		else
-			makeAlignments = true;
+		makeAlignments = true;
+		for (int a=2;a<args.length;a++){
+			if (args[a].equals("-onlyScore"))
+				makeAlignments = false;
+			else if (args[a].equals("-linearSpace"))
+				linearSpace = true;
+			else if (args[a].equals("-banded"))
+				banded = true;
+			else if (args[a].equals("-threads") && a+1 < args.length)
+				threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-maxAlignments") && a+1 < args.length)
+				maxAlignments = Long.parseLong(args[++a]);
+			else if (args[a].equals("-names") && a+1 < args.length)
+				names = args[++a].split(",");
+		}
 		
 		//Read in Substiution Matrix from file in argument 2.
 		S = new ScoringMatrix(args[1]);
 		
 		//Read in the first sequence in the fasta file (first command line argument) into T and the second into P
-		//(Sequences are just ascii strings here)
+		//(checked and encoded in the alphabet of S while reading. The strings are only for printing the alignments)
 	
-		ArrayList<String> sequences = FASTA.readAllSequences(args[0]);
-		T = sequences.get(0);
-		P = sequences.get(1);
+		ArrayList<Sequence> sequences = names == null ? FASTA.readSequences(args[0], S) : FASTA.readSequences(args[0], names, S);
+		Sequence template = sequences.get(0);
+		Sequence probe = sequences.get(1);
+		T = template.toString();
+		P = probe.toString();
 		int m = T.length();
 		int n = P.length();
 		sequences = null;
 		
-		if (makeAlignments && (n * m > Math.pow(10, 9)))	//We would require more than 10^9 cells in the matrix
-			System.out.println("Warning: Memory use will be > 1GB due to long inputs. Use 2nd parameter -onlyScore to not calculate alignments and reduce memory use to O(|Seq1|+|Seq2|)");
+		if (makeAlignments && !linearSpace && !banded && ((long) n * (m+1) > 2 * Math.pow(10, 9)))	//We would require more than 2*10^9 cells in the matrix
+			System.out.println("Warning: Traceback will need > 1GB (in a temporary file) due to long inputs. Use 2nd parameter -onlyScore to not calculate alignments and reduce memory use to O(|Seq1|+|Seq2|), or -linearSpace to get one optimal alignment with O(|Seq1|+|Seq2|) memory");
+		
+		if (banded){
+			//Only the cells near the diagonal, widened until the score is provably optimal
+			if (makeAlignments){
+				alignment = new Alignment();
+				int score = BandedAlignment.align(T, P, S, indel_cost, alignment);
+				System.out.println("The best possible alignment score is: " + score);
+				System.out.println("An alignment with this score is:\n");
+				alignment.print();
+			}
+			else
+				printResults(BandedAlignment.score(T, P, S, indel_cost), false, 0);
+			return;
+		}
+		
+		if (linearSpace && makeAlignments){	//with -onlyScore, the score below needs only two rows anyway
+			//Divide and conquer. Never holds more than two rows of D at a time, and no A at all.
+			alignment = new Alignment();
+			int score = hirschberg(T, P, alignment);
+			System.out.println("The best possible alignment score is: " + score);
+			System.out.println("An alignment with this score is:\n");
+			alignment.print();
+			return;
+		}
+		
+		if (threads > 1){
+			//Same as below, but the matrix is filled block by block along the anti-diagonals by several threads
+			if (makeAlignments)
+				A = new TracebackMatrix(n, m);
+			printResults(Wavefront.fill(template.codes, probe.codes, S, indel_cost, A, threads), makeAlignments, maxAlignments);
+			return;
+		}
+		
+		//Row by row, in one thread
+		printResults(fill(template, probe, makeAlignments), makeAlignments, maxAlignments);
+	}
+	
+	/**
+	 * Fills out D row by row, keeping only two rows, and if makeAlignments also all of A (which printAlignments needs afterwards).
+	 * @param template goes on top of the alignment (top side of the matrix)
+	 * @param probe goes in the bottom of the alignment (left side of the matrix)
+	 * @param makeAlignments fill out A, too
+	 * @return score of the optimal alignments
+	 * @throws IOException if A does not fit into memory and the temporary file for it can not be made
+	 */
+	static int fill(Sequence template, Sequence probe, boolean makeAlignments) throws IOException{
+		int m = template.length();
+		int n = probe.length();
 		
 		//Calculate scores of the optimal alignments, and the backtracking information.
 		D = new int[n+1][];
 		
+		//Get the scores of every residue against all of T (query profile)
+		byte[] p = probe.codes(S);
+		int[][] profile = S.profile(template.codes(S));
+		
 		if (makeAlignments)
-			A = new EnumSet[n+1][m+1];
+			A = new TracebackMatrix(n, m);
 		
 		//Row 0: alignments of prefixes of the template with ""
 		D[0] = new int[m+1];
@@ -90,7 +167,7 @@ public class GlobalAlignment {
 			D[0][j] = j * indel_cost;
 			
 			if (makeAlignments)
-				A[0][j] = EnumSet.of(EditscriptEvent.DEL);
+				A.set(0, j, TracebackMatrix.DEL);
 		}
 	
 		//Fill out the matrix row by row. Only save the row currently being filled and the one above. Discard the rest.
@@ -101,7 +178,8 @@ public class GlobalAlignment {
 			//Column 0 is for alignments of prefixes of the probe with ""
 			D[i][0] = i * indel_cost;
 			if (makeAlignments)
-				A[i][0] = EnumSet.of(EditscriptEvent.INS);
+				A.set(i, 0, TracebackMatrix.INS);
+			int[] s_i = profile[p[i-1]];	//scores of P[i] against t1...tm
 			
 			//Fill out row i
 			for (int j=1;j<=m;j++){	//cell (i,j)
@@ -110,7 +188,7 @@ public class GlobalAlignment {
 				// ~~~ optimal alignment of t1...tj-1~~~   A
 				// ~~~          with        p1...pi-1~~~   T
 				// This corresponds to T[j] having been mutated into P[i] during the evolution of T into P.
-				int score_if_match = D[i-1][j-1] + s(P.charAt(i/*string index starts at 0*/-1), T.charAt(j/*string index starts at 0*/-1));
+				int score_if_match = D[i-1][j-1] + s_i[j/*index starts at 0*/-1];
 				
 				//2: Possibility 2 is:
 				// ~~~ optimal alignment of t1...tj-1~~~   A
@@ -129,28 +207,37 @@ public class GlobalAlignment {
 				
 				if (makeAlignments){
 					//Record what the optimal alignment of t1...tj with p1...pi was.
-					A[i][j] = EnumSet.noneOf(EditscriptEvent.class);
+					int arrows = 0;
 					if (score_if_match == D[i][j])
-						A[i][j].add(EditscriptEvent.MUT);	//Could it have been possibility 1?
+						arrows |= TracebackMatrix.MUT;	//Could it have been possibility 1?
 					if (score_if_ins == D[i][j])
-						A[i][j].add(EditscriptEvent.INS);	//or possibility 2?
+						arrows |= TracebackMatrix.INS;	//or possibility 2?
 					if (score_if_del == D[i][j])
-						A[i][j].add(EditscriptEvent.DEL);	//or possbility 3?
+						arrows |= TracebackMatrix.DEL;	//or possbility 3?
+					A.set(i, j, arrows);
 				}
 			}
 			//done with row i. free up memory used by previous row
 			if (i > 0)
 				D[i-1] = null;
 		}
+		return D[n][m];
+	}
+	
+	/**
+	 * Writes out the alignment score and, if enabled, all optimal alignments from A.
+	 * @param score
+	 * @param makeAlignments
+	 * @param maxAlignments
+	 * @throws IOException 
+	 */
+	static void printResults(int score, boolean makeAlignments, long maxAlignments) throws IOException{
 		//Write out alignment score.
-		System.out.println("The best possible alignment score is: " + D[n][m]);
+		System.out.println("The best possible alignment score is: " + score);
 		//Output optimal alignments
 		if (makeAlignments){
 			System.out.println("The alignments with this score are:\n");
-			i = n;
-			j = m;
-			alignment = new Alignment();			
-		    recursivelyPrintAlignments();
+			printAlignments(maxAlignments);
 		}
 		else
 			System.out.println("You have disabled alignment output.");
@@ -158,51 +245,151 @@ public class GlobalAlignment {
 
 	
 	/**
-	 * Print all optimal alignments, corresponding to all paths from (i,j) to (0,0) 
-	 * in the graph determined by the 'arrows' in matrix A 
-	 * 
-	 * This sloppy function uses many global variables:
-	 * A, T, P, i, j, alignment		(at the time of this writing)
+	 * Returns the last row of the score matrix D for the alignment of template with probe, i.e. the scores of
+	 * the optimal alignments of the whole probe with every prefix t1...tj of the template.
+	 * Same row-by-row loop as in main, only the row being filled and the one above are kept. O(|template|) memory.
+	 * @param template goes on top of the alignment (top side of the matrix)
+	 * @param probe goes in the bottom of the alignment (left side of the matrix)
+	 * @return row n of D, with m+1 entries
 	 */
-	static void recursivelyPrintAlignments(){
-		if (i==0 && j == 0){
-			alignment.print();
-			System.out.println();
-			return;
+	static int[] lastRow(String template, String probe){
+		return lastRow(S.encode(template), S.encode(probe));
+	}
+	
+	/**
+	 * Same as lastRow(String, String), for encoded sequences (see ScoringMatrix.encode and Sequence).
+	 * @param template codes of the template
+	 * @param codes codes of the probe
+	 * @return row n of D, with m+1 entries
+	 */
+	static int[] lastRow(byte[] template, byte[] codes){
+		int m = template.length;
+		int n = codes.length;
+		int[] above = new int[m+1];
+		int[] row = new int[m+1];
+		int[][] profile = S.profile(template);
+		
+		//Row 0: alignments of prefixes of the template with ""
+		for (int j=0;j<=m; j++)
+			above[j] = j * indel_cost;
+		
+		for (int i=1;i<=n;i++){	//row i
+			row[0] = i * indel_cost;
+			int[] s_i = profile[codes[i-1]];
+			for (int j=1;j<=m;j++){	//cell (i,j)
+				int score_if_match = above[j-1] + s_i[j-1];
+				int score_if_del = row[j-1] + indel_cost;
+				int score_if_ins = above[j] + indel_cost;
+				row[j] = Math.max(Math.max(score_if_match, score_if_del), score_if_ins);
+			}
+			//row i is the row above in the next iteration, the old one gets overwritten
+			int[] swap = above; above = row; row = swap;
 		}
-		else {	
-			if (A[i][j].contains(EditscriptEvent.DEL /* -> */)){
-				alignment.append(T.charAt(j-1), '_');
-				j--;
-				recursivelyPrintAlignments();
-				j++;	//now backtracking...
-				alignment.shorten();
+		return above;
+	}
+	
+	/**
+	 * Computes one optimal alignment of template with probe in O(|template|+|probe|) memory (Hirschberg's algorithm).
+	 * The probe is cut in half. The forward pass (lastRow of the upper half) and the backward pass (lastRow of the reversed
+	 * lower half with the reversed template) tell us in which column an optimal path crosses the middle of the matrix.
+	 * Then the two halves are aligned recursively. Recursion depth is only log(|probe|).
+	 * Columns are attached on the right of the alignment, so the left half has to be done first.
+	 * @param template goes on top of the alignment
+	 * @param probe goes in the bottom of the alignment
+	 * @param alignment the columns of the optimal alignment are appended to this
+	 * @return score of the alignment
+	 */
+	static int hirschberg(String template, String probe, Alignment alignment){
+		int m = template.length();
+		int n = probe.length();
+		
+		if (n <= 1 || m <= 1)
+			return alignSmall(template, probe, alignment);
+		
+		int mid = n / 2;
+		String upper = probe.substring(0, mid);
+		String lower = probe.substring(mid);
+		int[] forward = lastRow(template, upper);					//forward[j]: score of upper half with t1...tj
+		int[] backward = lastRow(reverse(template), reverse(lower));	//backward[k]: score of lower half with the last k characters of the template
+		
+		//Find the column where the optimal path crosses from the upper into the lower half
+		int split = 0;
+		for (int j=1;j<=m;j++)
+			if (forward[j] + backward[m-j] > forward[split] + backward[m-split])
+				split = j;
+		int score = forward[split] + backward[m-split];
+		
+		hirschberg(template.substring(0, split), upper, alignment);
+		hirschberg(template.substring(split), lower, alignment);
+		return score;
+	}
+	
+	/**
+	 * Base case of hirschberg(): one of the sequences has at most one character, so the whole matrix has only O(|template|+|probe|) cells.
+	 * Fills it out like main does and follows one path of arrows from (n,m) back to (0,0), preferring DEL, then MUT, then INS like recursivelyPrintAlignments.
+	 */
+	static int alignSmall(String template, String probe, Alignment alignment){
+		int m = template.length();
+		int n = probe.length();
+		int[][] d = new int[n+1][m+1];
+		
+		for (int row=0;row<=n;row++)
+			for (int col=0;col<=m;col++){
+				if (row == 0)
+					d[row][col] = col * indel_cost;
+				else if (col == 0)
+					d[row][col] = row * indel_cost;
+				else
+					d[row][col] = Math.max(Math.max(d[row-1][col-1] + s(probe.charAt(row-1), template.charAt(col-1)), d[row][col-1] + indel_cost), d[row-1][col] + indel_cost);
 			}
-			
-			if (A[i][j].contains(EditscriptEvent.MUT /* \ */)){
-				alignment.append(T.charAt(j-1), P.charAt(i-1));
-				i--; j--;
-				recursivelyPrintAlignments();
-				i++; j++; //now backtracking...
-				alignment.shorten();
+		
+		//Walk back to (0,0), writing the columns from right to left
+		char[] top = new char[n+m];
+		char[] bottom = new char[n+m];
+		int k = n+m;
+		int row = n;
+		int col = m;
+		while (row > 0 || col > 0){
+			k--;
+			if (col > 0 && (row == 0 || d[row][col] == d[row][col-1] + indel_cost)){	//DEL
+				top[k] = template.charAt(col-1);
+				bottom[k] = '_';
+				col--;
 			}
-			
-			if (A[i][j].contains(EditscriptEvent.INS /* | */)){
-				alignment.append('_', P.charAt(i-1));
-				i--;
-				recursivelyPrintAlignments();
-				i++;	//now backtracking...
-				alignment.shorten();
+			else if (row > 0 && col > 0 && d[row][col] == d[row-1][col-1] + s(probe.charAt(row-1), template.charAt(col-1))){	//MUT
+				top[k] = template.charAt(col-1);
+				bottom[k] = probe.charAt(row-1);
+				row--; col--;
+			}
+			else {	//INS
+				top[k] = '_';
+				bottom[k] = probe.charAt(row-1);
+				row--;
 			}
-			return;
 		}
+		for (; k < n+m; k++)
+			alignment.appendRight(top[k], bottom[k]);
+		return d[n][m];
+	}
+	
+	static String reverse(String sequence){
+		return new StringBuilder(sequence).reverse().toString();
 	}
-}	
 	
-	/*
-	 * The overhead of managing all those function calls is considerable. Edit: No, it's absurd!
-	 * Will this run out of memory when both sequences are large, but have a small number of optimal alignments?
-	 * Yes, currently for each column in the alignment there is a function call put on the stack.
-	 * That is not nice.
+	/**
+	 * Writes out the optimal alignments (at most maxAlignments of them), corresponding to all paths from (n,m) to (0,0)
+	 * in the graph determined by the 'arrows' in matrix A. 
+	 * AlignmentIterator walks the paths with its own stack, so there is no function call per alignment column any more.
+	 * @param maxAlignments
+	 * @throws IOException 
 	 */
-	 //TODO: Let's make it that for every *branch* there is a function call on the stack.
\ No newline at end of file
+	static void printAlignments(long maxAlignments) throws IOException{
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		Iterator<Alignment> alignments = new AlignmentIterator(A, T, P, maxAlignments);
+		while (alignments.hasNext()){
+			alignments.next().print(out);
+			out.write('\n');
+		}
+		out.flush();
+	}
+}	
@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alignment-free distance estimate between sequences, for sets too large to align every pair (see TreeMaker -minhash and -candidates).
+ *
+ * Every sequence is cut into its k-mers (all substrings of length k). Two related sequences share many k-mers, and the
+ * Jaccard index J = |shared k-mers| / |all k-mers of both| goes down as the number of mutations goes up.
+ * Instead of the sets we keep a sketch: the smallest sketchSize hash values of the k-mers (bottom-s MinHash). The smallest sketchSize
+ * hashes of the union of two sketches are a random sample of the union, and the fraction of them that is in both sketches estimates J.
+ * Comparing two sketches is one merge of two short sorted arrays, a microsecond or so.
+ *
+ * From J we get the Mash distance -1/k * ln(2J/(1+J)), an estimate of the fraction of mutated residues (1 if nothing is shared).
+ * @author kehwan
+ *
+ */
+public class MinHash {
+	final int k;
+	final int sketchSize;
+	final long[][] sketch;	//sketch[a]: the smallest hashes of the k-mers of sequence a, sorted ascending, without duplicates
+
+	/**
+	 * Sketches all the sequences.
+	 * @param sequences
+	 * @param S scoring matrix, for the alphabet of the residues
+	 * @param k k-mer length, e.g. 5 for proteins. size()^k must fit into a long
+	 * @param sketchSize number of hashes per sketch, e.g. 256. More is more exact and slower
+	 */
+	MinHash(ArrayList<Sequence> sequences, ScoringMatrix S, int k, int sketchSize){
+		if (k < 1 || Math.pow(S.size(), k) >= Long.MAX_VALUE)
+			throw new IllegalArgumentException("k-mer length " + k + " does not fit into a long");
+		this.k = k;
+		this.sketchSize = sketchSize;
+		sketch = new long[sequences.size()][];
+		for (int a=0;a<sketch.length;a++)
+			sketch[a] = sketch(sequences.get(a).codes(S), S.size());
+	}
+
+	/**
+	 * The k-mers as numbers in base size (rolling, one multiplication per residue), hashed, and the smallest sketchSize hashes.
+	 */
+	private long[] sketch(byte[] codes, int size){
+		int kmers = Math.max(codes.length - k + 1, 0);
+		long[] hashes = new long[kmers];
+		long top = 1;	//size^(k-1), the weight of the first residue of a k-mer
+		for (int x=1;x<k;x++)
+			top *= size;
+		long kmer = 0;
+		for (int x=0;x<codes.length;x++){
+			if (x >= k)
+				kmer -= codes[x-k] * top;
+			kmer = kmer * size + codes[x];
+			if (x >= k-1)
+				hashes[x-k+1] = ScoreCache.mix(kmer);
+		}
+		Arrays.sort(hashes);
+		int distinct = 0;
+		for (int x=0;x<hashes.length && distinct<sketchSize;x++)
+			if (distinct == 0 || hashes[x] != hashes[distinct-1])
+				hashes[distinct++] = hashes[x];
+		return Arrays.copyOf(hashes, distinct);
+	}
+
+	/**
+	 * Estimated Jaccard index of the k-mer sets of sequences a and b.
+	 */
+	double jaccard(int a, int b){
+		long[] A = sketch[a];
+		long[] B = sketch[b];
+		int x = 0, y = 0, union = 0, shared = 0;
+		//walk through the smallest sketchSize hashes of the union
+		while (union < sketchSize && x < A.length && y < B.length){
+			if (A[x] == B[y]){
+				shared++;
+				x++; y++;
+			}
+			else if (A[x] < B[y])
+				x++;
+			else
+				y++;
+			union++;
+		}
+		union += Math.min(sketchSize - union, (A.length - x) + (B.length - y));
+		return union == 0 ? 0 : (double) shared / union;
+	}
+
+	/**
+	 * Mash distance of sequences a and b, between 0 (same k-mers) and 1 (nothing shared).
+	 */
+	double distance(int a, int b){
+		double J = jaccard(a, b);
+		if (J == 0)
+			return 1;
+		return Math.min(1, -Math.log(2*J / (1+J)) / k);
+	}
+
+	/**
+	 * The distances of all pairs, lower triangle as in DistanceMatrix (e.g. for NeighborJoining.join).
+	 * @param threads number of threads
+	 */
+	float[] distances(int threads){
+		final int n = sketch.length;
+		final float[] d = new float[(int) ((long) n * (n-1) / 2)];
+		forEachSequence(threads, new Row(){
+			void run(int a){
+				int o = (int) ((long) a * (a-1) / 2);
+				for (int b=0;b<a;b++)
+					d[o + b] = (float) distance(a, b);
+			}
+		});
+		return d;
+	}
+
+	/**
+	 * For every sequence its nearest neighbours, i.e. the candidates worth aligning.
+	 * @param count how many for each sequence
+	 * @param threads number of threads
+	 * @return neighbours[a]: the nearest count sequences to a, nearest first
+	 */
+	int[][] nearest(final int count, int threads){
+		final int n = sketch.length;
+		final int[][] neighbours = new int[n][];
+		forEachSequence(threads, new Row(){
+			void run(int a){
+				int c = Math.min(count, n-1);
+				int[] best = new int[c];
+				double[] bestDistance = new double[c];
+				int found = 0;
+				for (int b=0;b<n && c>0;b++){
+					if (b == a)
+						continue;
+					double dist = distance(a, b);
+					if (found == c && dist >= bestDistance[c-1])
+						continue;
+					//insert into the sorted list of the best ones
+					int x = found < c ? found++ : c-1;
+					while (x > 0 && bestDistance[x-1] > dist){
+						best[x] = best[x-1];
+						bestDistance[x] = bestDistance[x-1];
+						x--;
+					}
+					best[x] = b;
+					bestDistance[x] = dist;
+				}
+				neighbours[a] = best;
+			}
+		});
+		return neighbours;
+	}
+
+	/**
+	 * Something to do for one sequence, see forEachSequence.
+	 */
+	static abstract class Row {
+		abstract void run(int a);
+	}
+
+	/**
+	 * Calls row.run(a) for all sequences a, on several threads. The threads take the next sequence from a shared counter,
+	 * starting with the last ones (the rows of the lower triangle get longer towards the end).
+	 */
+	private void forEachSequence(int threads, final Row row){
+		final AtomicInteger next = new AtomicInteger(sketch.length);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+		for (int t=0;t<threads;t++)
+			workers.add(new Callable<Object>(){
+				public Object call(){
+					int a;
+					while ((a = next.decrementAndGet()) >= 0)
+						row.run(a);
+					return null;
+				}
+			});
+		try {
+			//invokeAll returns when all rows are done
+			for (Future<Object> f : pool.invokeAll(workers))
+				f.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Neighbor-joining (Saitou & Nei). Unlike Clustering it does not assume that all species evolve at the same rate:
+ * it joins the pair i,j with the smallest Q(i,j) = (r-2)*d(i,j) - u(i) - u(j), where r is the number of nodes left
+ * and u(i) the sum of the distances of i to all of them. The result is an unrooted tree with branch lengths (see printNewick).
+ *
+ * Searching all of Q is O(r^2) per join, O(n^3) in total. Like RapidNJ, we keep for every node the distances to the older nodes
+ * sorted ascending. Since u(j) <= uMax, a row can be abandoned as soon as (r-2)*d(i,j) - u(i) - uMax is not below the best Q so far,
+ * which usually happens after a few entries. The join itself is O(r) plus sorting the row of the new node.
+ * Memory: the distances (one float per pair) and the sorted rows (one long per pair).
+ * @author kehwan
+ *
+ */
+public class NeighborJoining {
+	final int n;				//number of species (leaves). Nodes 0...n-1 are the species
+	final int[] left, right;	//join k makes node n+k out of left[k] and right[k]
+	final float[] length;		//length[v]: length of the branch from node v to the node it was joined into
+	int[] root;					//the last two or three nodes, joined by the root of the printed tree
+
+	private NeighborJoining(int n){
+		this.n = n;
+		left = new int[Math.max(n-3, 0)];
+		right = new int[left.length];
+		length = new float[n + left.length];
+	}
+
+	/**
+	 * Neighbor-joining tree from pairwise alignment scores (higher = closer, as in TreeMaker).
+	 * The score is turned into a distance with the scores of the sequences against themselves: d(a,b) = (self(a)+self(b))/2 - score(a,b),
+	 * so identical sequences have distance 0.
+	 * @param scores pairwise scores
+	 * @param self score of each sequence with itself
+	 */
+	static NeighborJoining fromScores(DistanceMatrix scores, int[] self){
+		int n = scores.size();
+		float[] d = new float[(int) ((long) n * (n-1) / 2)];
+		for (int a=1;a<n;a++)
+			for (int b=0;b<a;b++)
+				d[index(a, b)] = (self[a] + self[b]) / 2f - scores.get(a, b);
+		return join(d, n);
+	}
+
+	/**
+	 * @param d distances, lower triangle as in DistanceMatrix. Gets overwritten.
+	 * @param n number of species
+	 */
+	static NeighborJoining join(float[] d, int n){
+		NeighborJoining tree = new NeighborJoining(n);
+		//The distances live in "slots" 0...n-1. A joined node takes over the slot of one of its two children.
+		int[] node = new int[n];				//node in slot s
+		int[] slot = new int[n + tree.left.length];	//slot of node v
+		boolean[] alive = new boolean[slot.length];
+		double[] u = new double[n];				//u[s]: sum of the distances of the node in slot s
+		long[][] row = new long[slot.length][];	//row[v]: the distances of v to all older nodes, sorted, see key()
+		int[] rowLength = new int[slot.length];
+		for (int s=0;s<n;s++){
+			node[s] = slot[s] = s;
+			alive[s] = true;
+			row[s] = new long[s];
+			for (int x=0;x<s;x++){
+				row[s][x] = key(d[index(s, x)], x);
+				u[s] += d[index(s, x)];
+				u[x] += d[index(s, x)];
+			}
+			Arrays.sort(row[s]);
+			rowLength[s] = s;
+		}
+
+		int r = n;
+		int cleanAt = r / 2;	//when to remove the dead nodes from the rows
+		for (int k=0;k<tree.left.length;k++){
+			double uMax = Double.NEGATIVE_INFINITY;
+			for (int s=0;s<n;s++)
+				if (alive[node[s]])
+					uMax = Math.max(uMax, u[s]);
+
+			//Find the pair with the smallest Q. Each pair is in the row of the younger node.
+			double qMin = Double.POSITIVE_INFINITY;
+			int bestI = -1, bestJ = -1;
+			for (int s=0;s<n;s++){
+				long[] R = row[node[s]];
+				if (!alive[node[s]])
+					continue;
+				for (int x=0;x<rowLength[node[s]];x++){
+					double dist = distance(R[x]);
+					if ((r-2) * dist - u[s] - uMax >= qMin)
+						break;	//no Q in the rest of this row can be smaller
+					int v = (int) R[x];
+					if (!alive[v])
+						continue;
+					double q = (r-2) * dist - u[s] - u[slot[v]];
+					if (q < qMin){
+						qMin = q;
+						bestI = s;
+						bestJ = slot[v];
+					}
+				}
+			}
+
+			//Join them into a new node in slot bestI
+			int i = bestI, j = bestJ;
+			float dij = d[index(i, j)];
+			int v = n + k;
+			tree.left[k] = node[i];
+			tree.right[k] = node[j];
+			tree.length[node[i]] = (float) (dij / 2 + (u[i] - u[j]) / (2 * (r-2)));
+			tree.length[node[j]] = dij - tree.length[node[i]];
+			alive[node[i]] = alive[node[j]] = false;
+			row[node[i]] = row[node[j]] = null;
+
+			long[] newRow = new long[r-2];
+			int c = 0;
+			double uNew = 0;
+			for (int s=0;s<n;s++)
+				if (s != i && s != j && alive[node[s]]){
+					float dis = d[index(s, i)];
+					float djs = d[index(s, j)];
+					float dvs = (dis + djs - dij) / 2;
+					u[s] += dvs - dis - djs;
+					uNew += dvs;
+					d[index(s, i)] = dvs;
+					newRow[c++] = key(dvs, node[s]);
+				}
+			Arrays.sort(newRow);
+			node[i] = v;
+			slot[v] = i;
+			alive[v] = true;
+			row[v] = newRow;
+			rowLength[v] = newRow.length;
+			u[i] = uNew;
+			u[j] = 0;
+			r--;
+
+			if (r <= cleanAt){
+				for (int s=0;s<n;s++)
+					if (alive[node[s]])
+						rowLength[node[s]] = removeDead(row[node[s]], rowLength[node[s]], alive);
+				cleanAt = r / 2;
+			}
+		}
+
+		//The last (up to) three nodes hang at the root
+		tree.root = new int[Math.min(r, n)];
+		int c = 0;
+		for (int s=0;s<n;s++)
+			if (alive[node[s]])
+				tree.root[c++] = s;
+		if (r == 3){
+			int a = tree.root[0], b = tree.root[1], e = tree.root[2];
+			tree.length[node[a]] = (d[index(a, b)] + d[index(a, e)] - d[index(b, e)]) / 2;
+			tree.length[node[b]] = (d[index(a, b)] + d[index(b, e)] - d[index(a, e)]) / 2;
+			tree.length[node[e]] = (d[index(a, e)] + d[index(b, e)] - d[index(a, b)]) / 2;
+		}
+		else if (r == 2)
+			tree.length[node[tree.root[0]]] = tree.length[node[tree.root[1]]] = d[index(tree.root[0], tree.root[1])] / 2;
+		for (int x=0;x<tree.root.length;x++)
+			tree.root[x] = node[tree.root[x]];
+		return tree;
+	}
+
+	/**
+	 * Writes the tree in Newick format, e.g. "('Homo Sapiens':1.5,('Mus musculus':2.0,'Ratus Norvegicus':2.25):0.5,'Bos taurus':3.0);"
+	 * Names are quoted, so they can contain blanks. Explicit stack, the tree can be thousands of nodes deep.
+	 * @param out
+	 * @param names name of each species, e.g. the FASTA headers
+	 * @throws IOException
+	 */
+	void printNewick(Writer out, String[] names) throws IOException{
+		//Stack entries: v >= 0 write node v, -1 write ",", -2-v write ")" and the branch length of v
+		int[] stack = new int[3 * length.length + 4];
+		int top = 0;
+		out.write('(');
+		for (int x=root.length-1;x>=0;x--){
+			stack[top++] = root[x];
+			if (x > 0)
+				stack[top++] = -1;
+		}
+		while (top > 0){
+			int v = stack[--top];
+			if (v == -1)
+				out.write(',');
+			else if (v < -1)
+				writeLength(-2 - v, out);
+			else if (v < n){
+				out.write('\'' + names[v].replace("'", "''") + '\'');
+				writeLength(v, out);
+			}
+			else {
+				out.write('(');
+				stack[top++] = -2 - v;
+				stack[top++] = right[v - n];
+				stack[top++] = -1;
+				stack[top++] = left[v - n];
+			}
+		}
+		out.write(");\n");
+	}
+
+	private void writeLength(int v, Writer out) throws IOException{
+		if (v >= n)
+			out.write(')');
+		if (root.length > 1)
+			out.write(String.format(Locale.ROOT, ":%.4f", length[v]));
+	}
+
+	/**
+	 * Removes the entries of dead nodes from the first length entries of R (keeps the order).
+	 * @return new length
+	 */
+	private static int removeDead(long[] R, int length, boolean[] alive){
+		int w = 0;
+		for (int x=0;x<length;x++)
+			if (alive[(int) R[x]])
+				R[w++] = R[x];
+		return w;
+	}
+
+	/**
+	 * Distance and node in one long that sorts by the distance: the float bits, made to sort like ints, in the upper half, the node in the lower one.
+	 */
+	private static long key(float distance, int v){
+		int bits = Float.floatToIntBits(distance);
+		bits ^= (bits >> 31) & 0x7fffffff;	//negative floats sort the other way round
+		return ((long) bits << 32) | v;
+	}
+
+	private static float distance(long key){
+		int bits = (int) (key >> 32);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return Float.intBitsToFloat(bits);
+	}
+
+	/**
+	 * Position of (a,b) in the lower triangle, as in DistanceMatrix.
+	 */
+	private static int index(int a, int b){
+		return a > b ? (a*(a-1) >>> 1) + b : (b*(b-1) >>> 1) + a;
+	}
+}
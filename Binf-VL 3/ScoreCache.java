@@ -0,0 +1,224 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Pairwise alignment scores saved in a file, so that TreeMaker only has to align the pairs it has not seen before.
+ *
+ * A pair is identified by the contents of the two sequences (a 64 bit hash of the residues, see hash()), not by their names or
+ * their position in the FASTA file, together with the scoring matrix (ScoringMatrix.hash) and the gap cost.
+ * So one file can hold scores for several matrices, and reordering or renaming sequences does not matter.
+ *
+ * The file is a hash table (open addressing, linear probing) that is memory-mapped and used as it is: opening it reads
+ * nothing but the header, and every lookup touches one or two entries. When it gets half full it is doubled (that one time
+ * the entries are read into memory and put into the bigger table, in a new file that then replaces the old one).
+ *
+ * Header: magic, capacity, count. Then capacity entries of 24 bytes: key (2 longs), score, used flag.
+ * Not thread safe, and not safe against the program dying in the middle of put(): that can lose the entry being put,
+ * but not the rest of the cache.
+ * @author kehwan
+ *
+ */
+public class ScoreCache {
+	static final long MISSING = Long.MIN_VALUE;	//get() for pairs that are not in the cache
+	private static final long MAGIC = 0x42696e6653636f72L;	//"BinfScor"
+	private static final int HEADER = 32;
+	private static final int ENTRY = 24;
+	private static final int MAX_CAPACITY = 1 << 26;	//the table has to fit into one mapping (< 2GB)
+
+	private final String filename;
+	private RandomAccessFile file;
+	private final long context;		//matrix and gap cost, mixed into every key
+	private MappedByteBuffer table;
+	private int capacity;			//power of 2
+	private int count;
+
+	/**
+	 * Opens the cache file, or makes a new empty one if there is no such file.
+	 * @param filename
+	 * @param S the scoring matrix the scores are for
+	 * @param indel_cost the gap cost they are for
+	 * @throws IOException if the file exists but is not a ScoreCache
+	 */
+	ScoreCache(String filename, ScoringMatrix S, int indel_cost) throws IOException{
+		this.filename = filename;
+		boolean exists = new File(filename).length() > 0;
+		file = new RandomAccessFile(filename, "rw");
+		context = mix(S.hash() * 31 + indel_cost);
+		if (exists){
+			if (file.length() < HEADER || file.readLong() != MAGIC)
+				throw new IOException(filename + " is not a score cache");
+			capacity = file.readInt();
+			count = file.readInt();
+			if (Integer.bitCount(capacity) != 1 || file.length() < HEADER + (long) capacity * ENTRY)
+				throw new IOException(filename + " is not a score cache (or it is damaged)");
+			map();
+		}
+		else
+			create(1024);
+	}
+
+	/**
+	 * Content hash of a sequence, for get() and put(). Depends only on its residues (as letters, so not on the matrix).
+	 */
+	static long hash(Sequence sequence, ScoringMatrix S){
+		byte[] codes = sequence.codes(S);
+		long h = 0xcbf29ce484222325L;	//FNV-1a
+		for (int x=0; x<codes.length; x++)
+			h = (h ^ S.letter(codes[x])) * 0x100000001b3L;
+		return mix(h ^ codes.length);
+	}
+
+	/**
+	 * Number of pairs in the cache (for all matrices and gap costs).
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * Score of the sequences with content hashes a and b (in any order).
+	 * @return the score, or MISSING
+	 */
+	long get(long a, long b){
+		long k1 = key1(a, b);
+		long k2 = key2(a, b);
+		for (int slot=slot(k1, k2);;slot=(slot+1) & (capacity-1)){
+			int o = HEADER + slot * ENTRY;
+			if (table.getInt(o + 20) == 0)
+				return MISSING;
+			if (table.getLong(o) == k1 && table.getLong(o + 8) == k2)
+				return table.getInt(o + 16);
+		}
+	}
+
+	/**
+	 * Saves the score of the sequences with content hashes a and b (in any order). Replaces the old one, if there is one.
+	 * @throws IOException if the cache has to grow and can not
+	 */
+	void put(long a, long b, int score) throws IOException{
+		if (2L * (count + 1) > capacity)
+			grow();
+		insert(key1(a, b), key2(a, b), score);
+	}
+
+	/**
+	 * Writes everything to disk and closes the file.
+	 */
+	void close() throws IOException{
+		table.force();
+		file.close();
+	}
+
+	private void insert(long k1, long k2, int score){
+		for (int slot=slot(k1, k2);;slot=(slot+1) & (capacity-1)){
+			int o = HEADER + slot * ENTRY;
+			if (table.getInt(o + 20) == 0){
+				table.putLong(o, k1);
+				table.putLong(o + 8, k2);
+				table.putInt(o + 16, score);
+				table.putInt(o + 20, 1);
+				count++;
+				table.putInt(12, count);
+				return;
+			}
+			if (table.getLong(o) == k1 && table.getLong(o + 8) == k2){
+				table.putInt(o + 16, score);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Doubles the table: reads all entries and puts them into a new table twice as big, in filename.tmp, which then replaces the file.
+	 * If the program dies meanwhile, the old file is still there. If the old file can not be replaced (Windows does not
+	 * allow that while the old mapping is still around), the cache goes on in filename.tmp for this run and the old file stays as it was.
+	 */
+	private void grow() throws IOException{
+		if (capacity >= MAX_CAPACITY)
+			throw new IOException("Score cache is full (" + count + " pairs)");
+		long[] k1 = new long[count];
+		long[] k2 = new long[count];
+		int[] scores = new int[count];
+		int c = 0;
+		for (int slot=0;slot<capacity;slot++){
+			int o = HEADER + slot * ENTRY;
+			if (table.getInt(o + 20) != 0){
+				k1[c] = table.getLong(o);
+				k2[c] = table.getLong(o + 8);
+				scores[c] = table.getInt(o + 16);
+				c++;
+			}
+		}
+		File temp = new File(filename + ".tmp");
+		RandomAccessFile old = file;
+		MappedByteBuffer oldTable = table;
+		int oldCapacity = capacity;
+		file = new RandomAccessFile(temp, "rw");
+		boolean done = false;
+		try {
+			file.setLength(0);
+			create(2 * oldCapacity);
+			for (int x=0;x<c;x++)
+				insert(k1[x], k2[x], scores[x]);
+			table.force();
+			done = true;
+		} finally {
+			if (!done){
+				file.close();
+				temp.delete();
+				file = old;
+				table = oldTable;
+				capacity = oldCapacity;
+				count = c;
+			}
+		}
+		old.close();
+		File target = new File(filename);
+		if (!temp.renameTo(target) && target.delete())
+			temp.renameTo(target);
+	}
+
+	/**
+	 * Makes the file an empty table with the given capacity.
+	 */
+	private void create(int capacity) throws IOException{
+		this.capacity = capacity;
+		count = 0;
+		file.setLength(HEADER + (long) capacity * ENTRY);	//never shorter: the old mapping may still be around (and on Windows that forbids it)
+		map();
+		for (int o=HEADER;o<HEADER + capacity * ENTRY;o+=8)	//all entries 0 = unused
+			table.putLong(o, 0);
+		table.putLong(0, MAGIC);
+		table.putInt(8, capacity);
+		table.putInt(12, count);
+	}
+
+	private void map() throws IOException{
+		table = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * ENTRY);
+	}
+
+	//The key of a pair: the smaller content hash and the larger one, each mixed with the matrix and gap cost
+	private long key1(long a, long b){
+		return Math.min(a, b) ^ context;
+	}
+
+	private long key2(long a, long b){
+		return Math.max(a, b) ^ Long.rotateLeft(context, 32);
+	}
+
+	private int slot(long k1, long k2){
+		return (int) mix(k1 * 31 + k2) & (capacity-1);
+	}
+
+	/**
+	 * Scrambles the bits of x (the finalizer of SplitMix64), so that similar inputs give unrelated hashes.
+	 */
+	static long mix(long x){
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+}
@@ -1,19 +1,24 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Substitution matrix for use with biological sequence alignment.
  * An instance is a particular Matrix.
  * 
- * Risky cheapskate implementation assumes all seq
+ * The letters of the matrix file are numbered 0...size()-1 in the order of the header line (the alphabet, ~24 symbols for BLOSUM).
+ * The scores are in one flat array, score of codes a and b at a*size()+b.
+ * Sequences are checked and turned into codes once (encode), then the alignment loops use
+ * profile() to get the scores of a whole sequence against each residue, without any lookups or checks per cell.
  * @author kehwan
  *
  */
 public class ScoringMatrix {
-	private short matrix [][] = new short[256][256];	//the actual matrix is in here. Characters are encoded as ASCII letters.
-	private boolean matrixIsDefinedAt [][] = new boolean[256][256];
-	
+	private byte[] codeOf = new byte[256];	//code of each ASCII letter, -1 if not in the alphabet
+	private char[] alphabet;				//letter of each code
+	private int[] scores;					//size*size scores, row by row
+
 	/**
 	 * Read substitution Matrix from file.
 	 * Expected file format: blosum
@@ -30,23 +35,44 @@ public class ScoringMatrix {
 			line = source.readLine();
 		} while (line != null && line.charAt(0) == '#');
 		//Now we have the first non-comment line of the file in 'line'. (or null if there was only comments)
-		String[] spaltennamen = line.split("[ \\t]+");
-		//Now we've got a string array such as ["", "A","R","N","D"..."*"] (see blosum.txt from aufgabe 3)
-				
+		String[] spaltennamen = line.trim().split("[ \\t]+");
+		//Now we've got a string array such as ["A","R","N","D"..."*"] (see blosum.txt from aufgabe 3)
+
+		//The alphabet is the header line
+		Arrays.fill(codeOf, (byte) -1);
+		alphabet = new char[spaltennamen.length];
+		for (int c=0; c<spaltennamen.length; c++){
+			alphabet[c] = spaltennamen[c].charAt(0);
+			codeOf[alphabet[c]] = (byte) c;
+		}
+		int size = alphabet.length;
+		scores = new int[size * size];
+		boolean[] defined = new boolean[size * size];
+
 		while((line = source.readLine()) != null && ! line.equals("")){
 			//Wir haben jetzt eine matrixzeile in line.
-			String[] lineAsArray = line.split("[ \\t]+");
-			
-			char zeile = lineAsArray[0].charAt(0);
-			
+			String[] lineAsArray = line.trim().split("[ \\t]+");
+
+			int zeile = codeOf[lineAsArray[0].charAt(0)];
+			if (zeile < 0)
+				continue; //row for a letter that is not a column, can never be used
+
 			for(int spaltennr =1; spaltennr<lineAsArray.length; spaltennr++){
-				char spalte = spaltennamen[spaltennr].charAt(0);
-				matrix[zeile][spalte] = Short.parseShort(lineAsArray[spaltennr]);
-				matrixIsDefinedAt[zeile][spalte] = true;
+				int spalte = spaltennr - 1;
+				scores[zeile*size + spalte] = Short.parseShort(lineAsArray[spaltennr]);
+				defined[zeile*size + spalte] = true;
 			}
 		}
+		source.close();
+
+		for (int a=0; a<size; a++)
+			for (int b=0; b<size; b++)
+				if (!defined[a*size + b]){
+					System.out.println("Error: Scoring matrix " + blosumfile_name + " has no score for (" + alphabet[a] + "," + alphabet[b] + "), it has to be square.");
+					System.exit(-1);
+				}
 	}
- 
+
 	/**
 	 * Scoring function (scoring matrix) of a mutation from amino acid a to amino acid b.
 	 * 
@@ -55,13 +81,91 @@ public class ScoringMatrix {
 	 * @return
 	 */
 	public short d(char a, char b){
-		if (matrixIsDefinedAt[a][b]) 
-			return matrix[a][b];
-		else {
-			System.out.println("Error: Scoring matrix did not contain a score for the pair of sequence alphabet elements (" + a + "," + b + ")");
-			System.out.println("Wrong capitalization in matrix or input sequence? \n aborting.");
-			System.exit(-1);
-			return matrix[a][b]; //just so that eclipse does not complain; unreachable
+		int ca = a < 256 ? codeOf[a] : -1;
+		int cb = b < 256 ? codeOf[b] : -1;
+		if (ca < 0 || cb < 0)
+			notInMatrix(ca < 0 ? a : b);
+		return (short) scores[ca*alphabet.length + cb];
+	}
+
+	/**
+	 * Number of letters in the alphabet of the matrix.
+	 */
+	public int size(){
+		return alphabet.length;
+	}
+
+	/**
+	 * Score of the letters with codes a and b.
+	 */
+	public int score(int a, int b){
+		return scores[a*alphabet.length + b];
+	}
+
+	/**
+	 * Turns a sequence into the codes of its letters. This is where the sequence gets checked, once.
+	 * Aborts if a letter is not in the matrix (like d() does).
+	 * @param sequence
+	 * @return codes, 0...size()-1
+	 */
+	public byte[] encode(String sequence){
+		byte[] codes = new byte[sequence.length()];
+		for (int x=0; x<sequence.length(); x++)
+			codes[x] = code(sequence.charAt(x));
+		return codes;
+	}
+
+	/**
+	 * Code of a single letter. Aborts if it is not in the matrix.
+	 * @param c
+	 * @return 0...size()-1
+	 */
+	public byte code(char c){
+		if (c >= 256 || codeOf[c] < 0)
+			notInMatrix(c);
+		return codeOf[c];
+	}
+
+	/**
+	 * Letter of a code, the inverse of code().
+	 */
+	public char letter(int code){
+		return alphabet[code];
+	}
+
+	/**
+	 * Query profile: profile[a][j] is the score of letter code a against the j-th letter (from 0) of the sequence.
+	 * With this, the inner loop of an alignment over the sequence just reads profile[code of the other residue][j].
+	 * @param codes encoded sequence
+	 * @return size() rows of codes.length scores
+	 */
+	public int[][] profile(byte[] codes){
+		int size = alphabet.length;
+		int[][] profile = new int[size][codes.length];
+		for (int a=0; a<size; a++){
+			int[] row = profile[a];
+			for (int j=0; j<codes.length; j++)
+				row[j] = scores[a*size + codes[j]];
 		}
+		return profile;
+	}
+
+	/**
+	 * 64 bit hash of the alphabet and all scores. Two matrices with the same hash give the same alignment scores (unless we are very unlucky).
+	 * E.g. for ScoreCache, which must not mix up scores from different matrices.
+	 */
+	public long hash(){
+		long h = 0xcbf29ce484222325L;	//FNV-1a
+		for (int c=0; c<alphabet.length; c++)
+			h = (h ^ alphabet[c]) * 0x100000001b3L;
+		for (int x=0; x<scores.length; x++)
+			h = (h ^ scores[x]) * 0x100000001b3L;
+		return h;
+	}
+
+	private void notInMatrix(char c){
+		System.out.println("Error: Scoring matrix did not contain a score for the sequence alphabet element " + c);
+		System.out.println("Wrong capitalization in matrix or input sequence? \n aborting.");
+		System.exit(-1);
 	}
 }
@@ -0,0 +1,229 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line program: aligns one query sequence with every sequence of a FASTA database and writes out the best hits.
+ * Syntax: Search query.fasta database.fasta submatrix.blosum [-top K] [-threads N] [-onlyScore] [-seeds [-k N] [-candidates N]]
+ *
+ * The query is the first sequence of query.fasta. The database is read one record at a time (FASTAReader), so it can be
+ * larger than the memory. One thread reads, N threads (default: as many as there are processors) take the records from a
+ * queue and compute the global alignment score (FASTA.AlignmentDistance, linear space). Each of them keeps its K best hits
+ * (default 10) in a heap, and only those are kept in memory. In the end the heaps are merged, and for the K best hits one
+ * optimal alignment is computed (GlobalAlignment.hirschberg, also linear space), unless -onlyScore.
+ * Hits with the same score are in the order of the database.
+ *
+ * With -seeds, not all of the database is aligned: a k-mer index of it (SeedIndex, k-mer length -k, default 3, made once and
+ * saved as database.fasta.kmerK) and seed-and-extend (SeedExtend) pick the -candidates most promising sequences (default 200),
+ * and only those get the full alignment. Much faster for large databases, but a hit without any good seed is missed.
+ * @author kehwan
+ *
+ */
+public class Search {
+	/**
+	 * A database sequence and its score against the query.
+	 */
+	static class Hit {
+		final Sequence sequence;
+		final int index;	//position in the database, 0 for the first record
+		final int score;
+
+		Hit(Sequence sequence, int index, int score){
+			this.sequence = sequence;
+			this.index = index;
+			this.score = score;
+		}
+	}
+
+	/**
+	 * Better hits first: higher score, then earlier in the database.
+	 */
+	static final Comparator<Hit> BEST_FIRST = new Comparator<Hit>(){
+		public int compare(Hit a, Hit b){
+			if (a.score != b.score)
+				return a.score > b.score ? -1 : 1;
+			return a.index < b.index ? -1 : a.index > b.index ? 1 : 0;
+		}
+	};
+
+	private static final Hit END = new Hit(null, -1, 0);	//tells the workers that the database is done
+
+	public static void main(String[] args) throws IOException{
+		if (args.length < 3){
+			System.out.println("Parameter 1 required: Name of a FASTA file with the query sequence (the first one is used).");
+			System.out.println("Parameter 2 required: Name of a FASTA file with the database sequences.");
+			System.out.println("Parameter 3 required: Name of a file with a substiution matrix, BLOSUM format.");
+			System.out.println("Optional parameter -top K writes out the K best hits (default 10)");
+			System.out.println("Optional parameter -threads N aligns with N threads (default: number of processors)");
+			System.out.println("Optional parameter -onlyScore disables alignment output");
+			System.out.println("Optional parameter -seeds only aligns the -candidates N (default 200) best sequences by seed-and-extend with k-mers of length -k N (default 3)");
+			System.exit(0);
+		}
+		int top = 10;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean makeAlignments = true;
+		boolean seeds = false;
+		int k = 3;
+		int candidates = 200;
+		for (int a=3;a<args.length;a++){
+			if (args[a].equals("-top") && a+1 < args.length)
+				top = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-threads") && a+1 < args.length)
+				threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-onlyScore"))
+				makeAlignments = false;
+			else if (args[a].equals("-seeds"))
+				seeds = true;
+			else if (args[a].equals("-k") && a+1 < args.length)
+				k = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-candidates") && a+1 < args.length)
+				candidates = Integer.parseInt(args[++a]);
+		}
+		if (top < 1){
+			System.out.println("Parameter -top K needs K >= 1");
+			System.exit(-1);
+		}
+		if (threads < 1){
+			System.out.println("Parameter -threads N needs N >= 1");
+			System.exit(-1);
+		}
+
+		ScoringMatrix S = new ScoringMatrix(args[2]);
+		ArrayList<Sequence> queries = FASTA.readSequences(args[0], S);
+		if (queries.isEmpty()){
+			System.out.println("No sequence in " + args[0]);
+			System.exit(-1);
+		}
+		Sequence query = queries.get(0);
+		List<Hit> hits;
+		if (seeds){
+			SeedIndex index = SeedIndex.open(args[1], S, k);
+			int[] chosen = SeedExtend.candidates(query, index, S, candidates);
+			ArrayList<Sequence> database = new ArrayList<Sequence>();
+			for (int s: chosen)
+				database.add(index.sequence(s, S));
+			hits = search(query, database.iterator(), S, top, threads);
+		}
+		else {
+			FASTAReader database = new FASTAReader(args[1]);
+			hits = search(query, sequences(database, S), S, top, threads);
+			database.close();
+		}
+
+		//Alignments only for the hits
+		GlobalAlignment.S = S;
+		String q = query.toString();
+		for (int x=0;x<hits.size();x++){
+			Hit hit = hits.get(x);
+			System.out.println((x+1) + ". " + hit.sequence.header + " (" + hit.sequence.length() + " residues): score " + hit.score);
+			if (makeAlignments){
+				Alignment alignment = new Alignment();
+				GlobalAlignment.hirschberg(q, hit.sequence.toString(), alignment);
+				alignment.print();
+				System.out.println();
+			}
+		}
+	}
+
+	/**
+	 * The records of a FASTA file as Sequences, one at a time.
+	 */
+	static Iterator<Sequence> sequences(final FASTAReader source, final ScoringMatrix S){
+		return new Iterator<Sequence>(){
+			public boolean hasNext(){
+				return source.hasNext();
+			}
+
+			public Sequence next(){
+				FASTAReader.Record record = source.next();	//reused by the reader, so copy it
+				byte[] codes = new byte[record.length];
+				for (int x=0; x<record.length; x++)
+					codes[x] = S.code((char) (record.residues[x] & 0xff));
+				return new Sequence(record.header, codes, S);
+			}
+
+			public void remove(){
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Aligns the query with every sequence from database.
+	 * @param query
+	 * @param database e.g. sequences(FASTAReader)
+	 * @param S scoring matrix
+	 * @param top number of hits to keep
+	 * @param threads number of worker threads
+	 * @return the top best hits, best first
+	 */
+	static List<Hit> search(final Sequence query, Iterator<Sequence> database, final ScoringMatrix S, final int top, int threads){
+		//Small queue: the reader only has to stay a little ahead of the workers
+		final BlockingQueue<Hit> queue = new ArrayBlockingQueue<Hit>(4 * threads);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<PriorityQueue<Hit>>> workers = new ArrayList<Future<PriorityQueue<Hit>>>();
+		for (int t=0;t<threads;t++)
+			workers.add(pool.submit(new Callable<PriorityQueue<Hit>>(){
+				public PriorityQueue<Hit> call() throws InterruptedException{
+					//the worst of the best hits on top, so it can be replaced
+					PriorityQueue<Hit> best = new PriorityQueue<Hit>(top + 1, Collections.reverseOrder(BEST_FIRST));
+					Hit record;
+					while ((record = queue.take()) != END){
+						Hit hit = new Hit(record.sequence, record.index, FASTA.AlignmentDistance(query, record.sequence, S));
+						if (best.size() < top)
+							best.add(hit);
+						else if (top > 0 && BEST_FIRST.compare(hit, best.peek()) < 0){
+							best.poll();
+							best.add(hit);
+						}
+					}
+					return best;
+				}
+			}));
+
+		try {
+			int index = 0;
+			while (database.hasNext())
+				put(queue, new Hit(database.next(), index++, 0), workers);
+			for (int t=0;t<threads;t++)
+				put(queue, END, workers);
+
+			ArrayList<Hit> hits = new ArrayList<Hit>();
+			for (Future<PriorityQueue<Hit>> f : workers)
+				hits.addAll(f.get());
+			Hit[] sorted = hits.toArray(new Hit[hits.size()]);
+			Arrays.sort(sorted, BEST_FIRST);
+			return Arrays.asList(sorted).subList(0, Math.min(top, sorted.length));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Puts a record into the queue, waiting while it is full. If a worker died meanwhile, nobody would ever take it:
+	 * then its exception is thrown instead.
+	 */
+	private static void put(BlockingQueue<Hit> queue, Hit record, List<Future<PriorityQueue<Hit>>> workers) throws InterruptedException, ExecutionException{
+		while (!queue.offer(record, 100, TimeUnit.MILLISECONDS))
+			for (Future<PriorityQueue<Hit>> f : workers)
+				if (f.isDone())
+					f.get();
+	}
+}
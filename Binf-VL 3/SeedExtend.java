@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Seed-and-extend: finds the database sequences that are worth a full alignment with the query, without aligning all of them.
+ *
+ * 1. Seeds: every k-mer of the query is looked up in the SeedIndex. Each occurrence is a hit on a diagonal
+ *    (database position - query position) of one database sequence.
+ * 2. Ungapped extension: from the hit, the diagonal is extended to both sides as long as the score does not fall more
+ *    than X_UNGAPPED below the best one so far (X-drop). Hits on a diagonal that an extension already covered are skipped.
+ *    Per sequence the best of these segments is kept.
+ * 3. Gapped extension: for sequences whose best segment scores at least MIN_UNGAPPED, an alignment with gaps is
+ *    extended from the middle of the segment in both directions, again with X-drop (X_GAPPED): only the cells of the
+ *    dynamic programming matrix that are within X_GAPPED of the best score are filled out, usually a narrow band.
+ * The sequences with the best gapped scores are the candidates for the full global alignment (Search -seeds).
+ * Scores use the substitution matrix and FASTA.indel_cost, like the full alignment.
+ * @author kehwan
+ *
+ */
+public class SeedExtend {
+	static final int X_UNGAPPED = 20;
+	static final int X_GAPPED = 40;
+	static final int MIN_UNGAPPED = 25;
+	private static final int MINUS_INFINITY = Integer.MIN_VALUE / 2;
+
+	/**
+	 * The candidates for query in the database.
+	 * @param query
+	 * @param index k-mer index of the database
+	 * @param S scoring matrix (the one the index was made with)
+	 * @param count at most this many candidates
+	 * @return database sequences (numbers, see SeedIndex), in the order of the database
+	 */
+	static int[] candidates(Sequence query, SeedIndex index, ScoringMatrix S, int count){
+		byte[] q = query.codes(S);
+		byte[] d = index.codes;
+		int n = index.size();
+		int[] bestUngapped = new int[n];
+		int[] seedQ = new int[n];		//middle of the best segment, in the query
+		int[] seedD = new int[n];		//and in the database
+		HashMap<Long, Integer> covered = new HashMap<Long, Integer>();	//(sequence, diagonal) -> database position an extension reached
+
+		//1 and 2: seeds and ungapped extension
+		for (int x=0;x+index.k<=q.length;x++){
+			int slot = index.find(index.kmer(q, x, q.length));
+			if (slot < 0)
+				continue;
+			for (int y=index.first(slot);y<index.last(slot);y++){
+				int p = index.position(y);
+				int s = index.sequenceAt(p);
+				Long diagonal = ((long) s << 32) | ((p - x) & 0xffffffffL);
+				Integer end = covered.get(diagonal);
+				if (end != null && p < end)
+					continue;
+				int from = index.start[s], to = index.start[s+1];
+
+				//extend to the right from the hit, then to the left of it
+				int score = 0, best = 0, right = 0;
+				for (int i=0;x+i<q.length && p+i<to && score>best-X_UNGAPPED;i++){
+					score += S.score(q[x+i], d[p+i]);
+					if (score > best){
+						best = score;
+						right = i+1;
+					}
+				}
+				int left = 0;
+				score = best;
+				int total = best;
+				for (int i=1;x-i>=0 && p-i>=from && score>total-X_UNGAPPED;i++){
+					score += S.score(q[x-i], d[p-i]);
+					if (score > total){
+						total = score;
+						left = i;
+					}
+				}
+				covered.put(diagonal, p + right);
+				if (total > bestUngapped[s]){
+					bestUngapped[s] = total;
+					seedQ[s] = x + (right - left) / 2;
+					seedD[s] = p + (right - left) / 2;
+				}
+			}
+		}
+
+		//3: gapped extension of the promising ones
+		ArrayList<long[]> gapped = new ArrayList<long[]>();
+		for (int s=0;s<n;s++)
+			if (bestUngapped[s] >= MIN_UNGAPPED){
+				int from = index.start[s], to = index.start[s+1];
+				int score = extend(q, seedQ[s], 1, q.length - seedQ[s], d, seedD[s], to - seedD[s], S)
+						+ extend(q, seedQ[s]-1, -1, seedQ[s], d, seedD[s]-1, seedD[s] - from, S);
+				gapped.add(new long[]{score, s});
+			}
+		long[][] sorted = gapped.toArray(new long[gapped.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>(){
+			public int compare(long[] a, long[] b){
+				if (a[0] != b[0])
+					return a[0] > b[0] ? -1 : 1;
+				return a[1] < b[1] ? -1 : a[1] > b[1] ? 1 : 0;
+			}
+		});
+		int[] candidates = new int[Math.min(count, sorted.length)];
+		for (int x=0;x<candidates.length;x++)
+			candidates[x] = (int) sorted[x][1];
+		Arrays.sort(candidates);
+		return candidates;
+	}
+
+	/**
+	 * Gapped X-drop extension in one direction: the best score of an alignment of a prefix of a[aFrom], a[aFrom+dir], ...
+	 * (aLength residues) with a prefix of b[bFrom], b[bFrom+dir], ... (bLength residues), where the alignment may stop anywhere.
+	 * Fills out the matrix row by row (rows are b) and only the columns whose score is within X_GAPPED of the best one so far.
+	 * @return best score, at least 0 (the empty alignment)
+	 */
+	static int extend(byte[] a, int aFrom, int dir, int aLength, byte[] b, int bFrom, int bLength, ScoringMatrix S){
+		int[] above = new int[aLength+1];
+		int[] row = new int[aLength+1];
+		int gap = FASTA.indel_cost;
+		int best = 0;
+		//Row 0: gaps only
+		int lo = 0, hi = 1;		//the live columns of the row above are lo...hi-1
+		above[0] = 0;
+		while (hi <= aLength && hi * gap >= -X_GAPPED){
+			above[hi] = hi * gap;
+			hi++;
+		}
+
+		for (int i=1;i<=bLength;i++){
+			byte bi = b[bFrom + dir*(i-1)];
+			int newLo = -1, newHi = lo;
+			int limit = best - X_GAPPED;
+			for (int j=lo;j<=aLength;j++){
+				int score = MINUS_INFINITY;
+				if (j < hi)
+					score = above[j] + gap;						//gap in a
+				if (j > lo){
+					if (j-1 < hi)
+						score = Math.max(score, above[j-1] + S.score(a[aFrom + dir*(j-1)], bi));	//a[j] with b[i]
+					score = Math.max(score, row[j-1] + gap);	//gap in b
+				}
+				if (score < limit){
+					row[j] = MINUS_INFINITY;
+					if (j >= hi)
+						break;	//to the right of the row above, only gaps in b are left, and they get worse
+					continue;
+				}
+				row[j] = score;
+				if (newLo < 0)
+					newLo = j;
+				newHi = j+1;
+				if (score > best)
+					best = score;
+			}
+			if (newLo < 0)
+				break;	//the whole row dropped off
+			lo = newLo;
+			hi = newHi;
+			int[] swap = above; above = row; row = swap;
+		}
+		return best;
+	}
+}
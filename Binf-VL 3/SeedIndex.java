@@ -0,0 +1,354 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * k-mer index of a FASTA database, for seed-and-extend search (see SeedExtend and Search -seeds).
+ *
+ * All sequences are encoded (ScoringMatrix.code) and concatenated into one byte array, codes; sequence s is
+ * codes[start[s]...start[s+1]-1]. A position in the database is one int, the index into codes.
+ * The table maps every k-mer (its codes as a number in base S.size()) to the positions where it occurs.
+ * It is open addressing with linear probing on primitive arrays, without any objects per k-mer: slot x holds the
+ * k-mer keys[x] (plus 1, 0 means empty), and its positions are positions[first[x]...first[x+1]-1].
+ * Memory: the residues (1 byte each) plus one int per k-mer occurrence, plus the table.
+ *
+ * The index is saved next to the FASTA file (file.kmerK) and reused as long as it is newer than the file and was made with the same matrix.
+ * @author kehwan
+ *
+ */
+public class SeedIndex {
+	private static final long MAGIC = 0x42696e665365656cL;	//"BinfSeel"
+
+	final int k;
+	final String[] headers;
+	final int[] start;		//start[s]: position of the first residue of sequence s, start[size()] = codes.length
+	final byte[] codes;
+	private final long matrix;	//ScoringMatrix.hash of the matrix the codes are from
+	private final int size;		//alphabet size
+	private final long[] keys;
+	private final int[] first;
+	private final int[] positions;
+
+	private SeedIndex(int k, String[] headers, int[] start, byte[] codes, long matrix, int size, long[] keys, int[] first, int[] positions){
+		this.k = k;
+		this.headers = headers;
+		this.start = start;
+		this.codes = codes;
+		this.matrix = matrix;
+		this.size = size;
+		this.keys = keys;
+		this.first = first;
+		this.positions = positions;
+	}
+
+	/**
+	 * Index of the FASTA file filename: read from filename.kmerK, or made and saved there if there is none that fits.
+	 * @param filename FASTA file
+	 * @param S scoring matrix, for the alphabet
+	 * @param k k-mer length, e.g. 3 for proteins, 11 for DNA. S.size()^k must fit into a long
+	 * @throws IOException
+	 */
+	static SeedIndex open(String filename, ScoringMatrix S, int k) throws IOException{
+		if (k < 1 || Math.pow(S.size(), k) >= Long.MAX_VALUE)
+			throw new IllegalArgumentException("k-mer length " + k + " does not fit into a long");
+		File saved = new File(filename + ".kmer" + k);
+		if (saved.exists() && saved.lastModified() >= new File(filename).lastModified()){
+			try {
+				SeedIndex index = read(saved);
+				if (index != null && index.matrix == S.hash() && index.k == k)
+					return index;
+			} catch (IOException e) {
+				//damaged file: make a new one
+			}
+		}
+		SeedIndex index = build(filename, S, k);
+		try {
+			index.write(saved);
+		} catch (IOException e) {
+			//read-only directory: then we just use it this time
+		}
+		return index;
+	}
+
+	/**
+	 * Number of sequences.
+	 */
+	public int size(){
+		return headers.length;
+	}
+
+	/**
+	 * Sequence number s, with the codes copied out of the database.
+	 */
+	Sequence sequence(int s, ScoringMatrix S){
+		return new Sequence(headers[s], Arrays.copyOfRange(codes, start[s], start[s+1]), S);
+	}
+
+	/**
+	 * The sequence a database position belongs to.
+	 */
+	int sequenceAt(int position){
+		int s = Arrays.binarySearch(start, position);
+		if (s < 0)
+			return -s - 2;
+		while (start[s+1] == position)	//empty sequences start at the same position as the next one
+			s++;
+		return s;
+	}
+
+	/**
+	 * Slot of the given k-mer in the table, or -1 if it does not occur. Its positions are positions[first[slot]...first[slot+1]-1].
+	 */
+	int find(long kmer){
+		int mask = keys.length - 1;
+		for (int slot=(int) ScoreCache.mix(kmer) & mask;;slot=(slot+1) & mask){
+			if (keys[slot] == 0)
+				return -1;
+			if (keys[slot] == kmer + 1)
+				return slot;
+		}
+	}
+
+	int first(int slot){
+		return first[slot];
+	}
+
+	int last(int slot){
+		return first[slot+1];
+	}
+
+	int position(int x){
+		return positions[x];
+	}
+
+	/**
+	 * The k-mer starting at codes[x] as a number, or -1 if it does not fit into the sequence (crosses into the next one).
+	 */
+	long kmer(byte[] codes, int x, int end){
+		if (x + k > end)
+			return -1;
+		long kmer = 0;
+		for (int y=x;y<x+k;y++)
+			kmer = kmer * size + codes[y];
+		return kmer;
+	}
+
+	/**
+	 * Reads the FASTA file and makes the table: one pass to count the occurrences of every k-mer, one to note their positions.
+	 */
+	private static SeedIndex build(String filename, ScoringMatrix S, int k) throws IOException{
+		//All residues into one array
+		FASTAReader source = new FASTAReader(filename);
+		String[] headers = new String[16];
+		int[] start = new int[17];
+		byte[] codes = new byte[1 << 16];
+		int n = 0, length = 0;
+		while (source.hasNext()){
+			FASTAReader.Record record = source.next();
+			if ((long) length + record.length > Integer.MAX_VALUE - 8)
+				throw new IOException(filename + " is too big for a seed index (2^31 residues)");
+			if (n == headers.length){
+				headers = Arrays.copyOf(headers, 2*n);
+				start = Arrays.copyOf(start, 2*n + 1);
+			}
+			if (length + record.length > codes.length)
+				codes = Arrays.copyOf(codes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * codes.length, length + record.length)));
+			for (int x=0; x<record.length; x++)
+				codes[length + x] = S.code((char) (record.residues[x] & 0xff));
+			headers[n] = record.header;
+			start[n++] = length;
+			length += record.length;
+		}
+		source.close();
+		headers = Arrays.copyOf(headers, n);
+		start = Arrays.copyOf(start, n + 1);
+		start[n] = length;
+		codes = Arrays.copyOf(codes, length);
+
+		SeedIndex index = new SeedIndex(k, headers, start, codes, S.hash(), S.size(), null, null, null);
+		//Pass 1: count
+		int capacity = 16;
+		while (capacity < 2L * Math.min(length, Math.pow(S.size(), k)) && capacity < 1 << 30)
+			capacity <<= 1;
+		long[] keys = new long[capacity];
+		int[] count = new int[capacity + 1];
+		int occurrences = 0, distinct = 0;
+		for (int s=0;s<n;s++)
+			for (int x=start[s];x<start[s+1];x++){
+				long kmer = index.kmer(codes, x, start[s+1]);
+				if (kmer < 0)
+					break;
+				int slot = insert(keys, kmer);
+				if (count[slot]++ == 0 && ++distinct > capacity - capacity / 4)	//only if the capacity is at its limit
+					throw new IOException(filename + " has too many different " + k + "-mers for a seed index (2^30)");
+				occurrences++;
+			}
+		//Pass 2: positions, grouped by slot
+		int[] first = new int[capacity + 1];
+		for (int slot=0;slot<capacity;slot++)
+			first[slot+1] = first[slot] + count[slot];
+		int[] positions = new int[occurrences];
+		int[] next = Arrays.copyOf(first, capacity);
+		for (int s=0;s<n;s++)
+			for (int x=start[s];x<start[s+1];x++){
+				long kmer = index.kmer(codes, x, start[s+1]);
+				if (kmer < 0)
+					break;
+				positions[next[insert(keys, kmer)]++] = x;
+			}
+		return new SeedIndex(k, headers, start, codes, S.hash(), S.size(), keys, first, positions);
+	}
+
+	/**
+	 * Slot of kmer in keys, which gets it if it is not there yet.
+	 */
+	private static int insert(long[] keys, long kmer){
+		int mask = keys.length - 1;
+		for (int slot=(int) ScoreCache.mix(kmer) & mask;;slot=(slot+1) & mask)
+			if (keys[slot] == 0 || keys[slot] == kmer + 1){
+				keys[slot] = kmer + 1;
+				return slot;
+			}
+	}
+
+	/**
+	 * File: magic, matrix hash, k, alphabet size, number of sequences, number of residues, table capacity, number of positions,
+	 * then the headers (length and UTF-16 chars each), start, codes, keys, first, positions. Big-endian, like DataOutputStream.
+	 */
+	private void write(File file) throws IOException{
+		//into a temporary file first, so there is never a half written index under the real name
+		File temp = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(temp, "rw");
+		boolean done = false;
+		try {
+			out.setLength(0);
+			write(out.getChannel());
+			done = true;
+		} finally {
+			out.close();
+			if (!done)
+				temp.delete();
+		}
+		file.delete();
+		if (!temp.renameTo(file)){
+			temp.delete();
+			throw new IOException("Could not rename " + temp + " to " + file);
+		}
+	}
+
+	private void write(FileChannel channel) throws IOException{
+		ByteBuffer header = ByteBuffer.allocate(40);
+		header.putLong(MAGIC).putLong(matrix).putInt(k).putInt(size).putInt(headers.length).putInt(codes.length).putInt(keys.length).putInt(positions.length);
+		header.flip();
+		channel.write(header);
+		int chars = 0;
+		for (String h: headers)
+			chars += 2 + h.length();
+		ByteBuffer names = ByteBuffer.allocate(2 * chars);
+		for (String h: headers){
+			names.putInt(h.length());
+			names.asCharBuffer().put(h);
+			names.position(names.position() + 2 * h.length());
+		}
+		names.flip();
+		channel.write(names);
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+		for (int x=0;x<start.length;x+=buffer.capacity()/4)
+			write(channel, buffer, start, x, Math.min(buffer.capacity()/4, start.length - x));
+		for (int x=0;x<codes.length;x+=buffer.capacity()){
+			buffer.clear();
+			buffer.put(codes, x, Math.min(buffer.capacity(), codes.length - x));
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		for (int x=0;x<keys.length;x+=buffer.capacity()/8){
+			buffer.clear();
+			int count = Math.min(buffer.capacity()/8, keys.length - x);
+			buffer.asLongBuffer().put(keys, x, count);
+			buffer.limit(8 * count);
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+		}
+		for (int x=0;x<first.length;x+=buffer.capacity()/4)
+			write(channel, buffer, first, x, Math.min(buffer.capacity()/4, first.length - x));
+		for (int x=0;x<positions.length;x+=buffer.capacity()/4)
+			write(channel, buffer, positions, x, Math.min(buffer.capacity()/4, positions.length - x));
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, int[] array, int from, int count) throws IOException{
+		buffer.clear();
+		buffer.asIntBuffer().put(array, from, count);
+		buffer.limit(4 * count);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/**
+	 * Reads an index written by write(), or returns null if the file is not one.
+	 * @throws IOException also if the file is damaged (e.g. too short)
+	 */
+	private static SeedIndex read(File file) throws IOException{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.length() < 40 || in.readLong() != MAGIC)
+				return null;
+			long matrix = in.readLong();
+			int k = in.readInt();
+			int size = in.readInt();
+			int n = in.readInt();
+			int length = in.readInt();
+			int capacity = in.readInt();
+			int occurrences = in.readInt();
+			if (n < 0 || length < 0 || capacity < 0 || occurrences < 0
+					|| 40 + 4L * (n + 1) + length + 8L * capacity + 4L * (capacity + 1) + 4L * occurrences > in.length())
+				throw new IOException("Seed index file is too short");
+			FileChannel channel = in.getChannel();
+			String[] headers = new String[n];
+			for (int s=0;s<n;s++){
+				int chars = in.readInt();
+				if (chars < 0 || 2L * chars > in.length() - in.getFilePointer())
+					throw new IOException("Seed index file is too short");
+				char[] h = new char[chars];
+				read(channel, ByteBuffer.allocate(2 * h.length)).asCharBuffer().get(h);
+				headers[s] = new String(h);
+			}
+			int[] start = readInts(channel, n + 1);
+			byte[] codes = new byte[length];
+			read(channel, ByteBuffer.wrap(codes));
+			long[] keys = new long[capacity];
+			for (int x=0;x<capacity;x+=1 << 17){
+				int count = Math.min(1 << 17, capacity - x);
+				read(channel, ByteBuffer.allocate(8 * count)).asLongBuffer().get(keys, x, count);
+			}
+			int[] first = readInts(channel, capacity + 1);
+			int[] positions = readInts(channel, occurrences);
+			return new SeedIndex(k, headers, start, codes, matrix, size, keys, first, positions);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int[] readInts(FileChannel channel, int count) throws IOException{
+		int[] array = new int[count];
+		for (int x=0;x<count;x+=1 << 18){
+			int c = Math.min(1 << 18, count - x);
+			read(channel, ByteBuffer.allocate(4 * c)).asIntBuffer().get(array, x, c);
+		}
+		return array;
+	}
+
+	/**
+	 * Fills buffer from the channel and returns it ready to be read.
+	 */
+	private static ByteBuffer read(FileChannel channel, ByteBuffer buffer) throws IOException{
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new IOException("Seed index file is too short");
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * A sequence from a FASTA file: its header (the '>' line, without the '>') and its residues.
+ * The residues are the codes of the letters in the alphabet of a scoring matrix (see ScoringMatrix.encode), one byte each,
+ * so they are half the size of a String and the alignment loops can use them without checking or looking anything up.
+ * Made by FASTA.readSequences.
+ * @author kehwan
+ *
+ */
+public class Sequence {
+	final String header;
+	final byte[] codes;				//codes[x] is the code of residue x+1
+	private final ScoringMatrix S;	//matrix whose alphabet the codes are in
+
+	Sequence(String header, byte[] codes, ScoringMatrix S){
+		this.header = header;
+		this.codes = codes;
+		this.S = S;
+	}
+
+	/**
+	 * Number of residues.
+	 */
+	public int length(){
+		return codes.length;
+	}
+
+	/**
+	 * The residues as codes in the alphabet of the given matrix. No copy if that is the matrix the sequence was read with.
+	 * @param S
+	 * @return
+	 */
+	byte[] codes(ScoringMatrix S){
+		if (S == this.S)
+			return codes;
+		return S.encode(toString());
+	}
+
+	/**
+	 * The residues as letters (one-letter code), e.g. for printing alignments.
+	 */
+	public String toString(){
+		char[] letters = new char[codes.length];
+		for (int x=0; x<codes.length; x++)
+			letters[x] = S.letter(codes[x]);
+		return new String(letters);
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Score-only Needleman-Wunsch in Farrar's striped layout.
+ *
+ * The template is split into LANES stripes of segLen columns each. Column j (1-based) is lane (j-1)/segLen, segment (j-1)%segLen.
+ * A "vector" is one segment of all lanes, i.e. LANES cells that are segLen columns apart, so they do not depend on each other
+ * within a row. All vector operations are plain loops over the lanes, short and branch-free, which is what the JIT can turn into SIMD instructions.
+ * The dependency from left to right (deletions) is handled the lazy way: a first pass only carries it within each lane,
+ * then the values are shifted over to the next lane and corrected until nothing changes any more. That usually takes a segment or two.
+ *
+ * Substitution scores come from a query profile: for every residue of the probe, its scores against the whole template, already in the striped order.
+ *
+ * Plain Java, no jdk.incubator.vector: the projects here are built for Java 1.6.
+ * Turned off (FASTA uses its old loop) with -Dalignment.kernel=scalar
+ * @author kehwan
+ *
+ */
+public class StripedKernel {
+	static final int LANES = 4;	//measured: 4 beats 8 and 16 (fewer lazy-F corrections)
+	static final boolean ENABLED = !"scalar".equals(System.getProperty("alignment.kernel"));
+	private static final int MINUS_INFINITY = Integer.MIN_VALUE / 2;	//low enough, but adding a gap does not overflow
+
+	/**
+	 * Score of the optimal global alignments of T with P. Same result as FASTA.AlignmentDistance.
+	 * O(|T|) memory (plus one profile of |T| ints for each different residue in P).
+	 * @param T ... first sequence to align (top, columns)
+	 * @param P ... second sequence (left side, rows)
+	 * @param S ... substitution matrix
+	 * @param indel_cost ... score of an insertion or deletion (negative)
+	 * @return
+	 */
+	static int score(String T, String P, ScoringMatrix S, int indel_cost){
+		return score(S.encode(T), S.encode(P), S, indel_cost);
+	}
+
+	/**
+	 * Same, for encoded sequences (see ScoringMatrix.encode and Sequence).
+	 * @param t ... codes of the template
+	 * @param codes ... codes of the probe
+	 */
+	static int score(byte[] t, byte[] codes, ScoringMatrix S, int indel_cost){
+		int m = t.length;
+		int n = codes.length;
+		if (m == 0 || n == 0)
+			return (m + n) * indel_cost;
+
+		int segLen = (m + LANES - 1) / LANES;
+		int size = segLen * LANES;
+		int[][] profileOf = new int[S.size()][];	//query profile, built when a residue first shows up in P
+
+		int[] Hprev = new int[size];	//row i-1, striped
+		int[] Hcur = new int[size];		//row i, striped
+		int[] vDiag = new int[LANES];
+		int[] vF = new int[LANES];
+
+		//Row 0: alignments of prefixes of the template with ""
+		for (int s=0;s<segLen;s++)
+			for (int l=0;l<LANES;l++)
+				Hprev[s*LANES + l] = (l*segLen + s + 1) * indel_cost;
+
+		for (int i=1;i<=n;i++){	//row i
+			int p = codes[i-1];
+			int[] profile = profileOf[p];
+			if (profile == null)
+				profile = profileOf[p] = buildProfile(p, t, S, segLen);
+
+			//The upper left neighbours of segment 0 are the last segment of row i-1, moved one lane further. Lane 0 gets column 0.
+			int last = (segLen-1)*LANES;
+			vDiag[0] = (i-1) * indel_cost;
+			for (int l=1;l<LANES;l++)
+				vDiag[l] = Hprev[last + l-1];
+			//Left neighbours of segment 0: only lane 0 knows it yet (column 0). The others are fixed up below.
+			vF[0] = i * indel_cost + indel_cost;
+			for (int l=1;l<LANES;l++)
+				vF[l] = MINUS_INFINITY;
+
+			//First pass: diagonal, up, and left within the lane. Segment 0 gets its neighbours from vDiag and vF, ...
+			for (int l=0;l<LANES;l++)
+				Hcur[l] = Math.max(Math.max(vDiag[l] + profile[l], Hprev[l] + indel_cost), vF[l]);
+			//... the other segments from the segment before. Only whole segments, no branches: this is the loop the JIT vectorizes.
+			for (int o=LANES;o<size;o+=LANES)
+				for (int l=0;l<LANES;l++)
+					Hcur[o+l] = Math.max(Math.max(Hprev[o-LANES+l] + profile[o+l], Hprev[o+l] + indel_cost), Hcur[o-LANES+l] + indel_cost);
+			for (int l=0;l<LANES;l++)
+				vF[l] = Hcur[last+l] + indel_cost;
+
+			//Lazy F: carry the left neighbours over into the next lane until they do not improve anything
+			lazyF(Hcur, vF, segLen, indel_cost);
+
+			int[] swap = Hprev; Hprev = Hcur; Hcur = swap;
+		}
+		//Column m is the last one of the matrix
+		return Hprev[((m-1) % segLen)*LANES + (m-1) / segLen];
+	}
+
+	/**
+	 * Second pass over a row: vF holds H+gap of the last segment of each lane. Shift it one lane further and
+	 * carry it to the right as long as it beats what is in the row.
+	 */
+	private static void lazyF(int[] Hcur, int[] vF, int segLen, int indel_cost){
+		shift(vF);
+		int s = 0;
+		while (true){
+			int o = s*LANES;
+			boolean changed = false;
+			for (int l=0;l<LANES;l++)
+				if (vF[l] > Hcur[o+l]){
+					Hcur[o+l] = vF[l];
+					changed = true;
+				}
+			if (!changed)
+				return;	//the rest of the row already saw these values +gap in the first pass
+			for (int l=0;l<LANES;l++)
+				vF[l] = Hcur[o+l] + indel_cost;
+			if (++s == segLen){
+				s = 0;
+				shift(vF);
+			}
+		}
+	}
+
+	/**
+	 * Moves every lane one lane up (lane l gets lane l-1). Lane 0 gets minus infinity.
+	 */
+	private static void shift(int[] v){
+		for (int l=LANES-1;l>0;l--)
+			v[l] = v[l-1];
+		v[0] = MINUS_INFINITY;
+	}
+
+	/**
+	 * Scores of residue code p against every column of the encoded template t, in the striped order. Padding columns get 0.
+	 */
+	private static int[] buildProfile(int p, byte[] t, ScoringMatrix S, int segLen){
+		int[] profile = new int[segLen * LANES];
+		for (int s=0;s<segLen;s++)
+			for (int l=0;l<LANES;l++){
+				int j = l*segLen + s + 1;
+				if (j <= t.length)
+					profile[s*LANES + l] = S.score(p, t[j-1]);
+			}
+		return profile;
+	}
+}
@@ -1,16 +1,33 @@
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Grundlagen der Bioinformatik 2011/12 (Leser, Thomas) HU berlin
  * Aufgabe 3 aus der Uebung
  * 
  * Kommandozeilenprogramm: 
- * Syntax: Treemaker sequences.fasta submatrix.blosum
+ * Syntax: Treemaker sequences.fasta submatrix.blosum [-threads N] [-upgma | -nj] [-cache file] [-minhash | -candidates N] [-k N] [-sketch N] [-names A,B,...]
  * 
  * Bestimmt mit dem Verfahren aus der Vorlesung (Hierarchical clustering) einen Stammbaum zu den Proteinsequenzen im Fasta-File sequences.fasta 
+ * Die paarweisen Alignments laufen auf N Threads (default: so viele wie Prozessoren).
+ * Mit -nj wird stattdessen ein Neighbor-Joining-Baum im Newick-Format ausgegeben (siehe NeighborJoining).
+ * Mit -cache werden die paarweisen Scores in file gespeichert und beim naechsten Mal nur die neuen Paare ausgerechnet (siehe ScoreCache).
+ * Fuer zehntausende Sequenzen (siehe MinHash, k-mer-Laenge -k, default 5, und -sketch Hashes pro Sequenz, default 256):
+ * mit -minhash gibt es gar keine Alignments, der Baum wird aus den k-mer-Abstaenden gemacht,
+ * mit -candidates N wird jede Sequenz nur mit ihren N naechsten Nachbarn nach MinHash aligniert (siehe distances).
+ * Mit -names werden nur die Sequenzen mit diesen Namen genommen, ueber den Index sequences.fasta.fai (siehe FASTAIndex).
  * @author kehwan
  *
  */
@@ -25,78 +42,276 @@ public class TreeMaker {
 	public static void main(String[] args) throws IOException {
 		//0: Substi-Matrix einlesen
 		ScoringMatrix S = new ScoringMatrix(args[1]);
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean upgma = false;
+		boolean nj = false;
+		String cacheFile = null;
+		boolean minhash = false;
+		int candidates = 0;
+		int k = 5;
+		int sketchSize = 256;
+		String[] names = null;
+		for (int a=2;a<args.length;a++)
+			if (args[a].equals("-threads") && a+1 < args.length)
+				threads = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-upgma"))
+				upgma = true;
+			else if (args[a].equals("-nj"))
+				nj = true;
+			else if (args[a].equals("-cache") && a+1 < args.length)
+				cacheFile = args[++a];
+			else if (args[a].equals("-minhash"))
+				minhash = true;
+			else if (args[a].equals("-candidates") && a+1 < args.length)
+				candidates = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-k") && a+1 < args.length)
+				k = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-sketch") && a+1 < args.length)
+				sketchSize = Integer.parseInt(args[++a]);
+			else if (args[a].equals("-names") && a+1 < args.length)
+				names = args[++a].split(",");
 		//1: Alle sequenzen einlesen
-		ArrayList<String> sequences = FASTA.readAllSequences(args[0]);
+		ArrayList<Sequence> sequences = names == null ? FASTA.readSequences(args[0], S) : FASTA.readSequences(args[0], names, S);
 		
 		//2: Tabelle der paarweisen Distanzen ausrechen (D(i,j) = Alignment-Abstand von Spezies i zu Spezies j)	
-		
-		//2.1 hilfsweise legen wir eine liste der speziesnamen an zu denen derzeigt abstände gespeichert sind.
-		HashSet<String> spezies = new HashSet<String>();
-		for(int i=0; i<sequences.size(); i++)
-			spezies.add(Integer.toString(i));
-		
-		//2.2 Alle Distanzen zwischen sequenzpaaren berechnen
-		HashMap<String, Integer> D = new HashMap<String, Integer>();
-		for (String spezies1: spezies)
-			for (String spezies2: spezies){
-				if (! spezies1.equals(spezies2)){
-					//speichere den abstand zwischen spezies1 und spezies 2 ab
-					D.put(spezies1 + "," + spezies2, FASTA.AlignmentDistance(/*spezies1-sequenz*/sequences.get(Integer.parseInt(spezies1)), /*spezies2-sequenz*/sequences.get(Integer.parseInt(spezies2)), S));
-					D.put(spezies2 + "," + spezies1, D.get(spezies1 + "," + spezies2));
-				}
+		DistanceMatrix D;
+		MinHash sketches = minhash || candidates > 0 ? new MinHash(sequences, S, k, sketchSize) : null;
+		if (minhash){
+			//ohne Alignments, nur mit den k-mer-Abstaenden (siehe MinHash). Fuer sehr viele Sequenzen
+			float[] d = sketches.distances(threads);
+			if (nj){
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+				NeighborJoining.join(d, sequences.size()).printNewick(out, headers(sequences));
+				out.flush();
+				return;
 			}
+			//als Score: je naeher desto hoeher
+			D = new DistanceMatrix(sequences.size());
+			for (int a=1; a<sequences.size(); a++)
+				for (int b=0; b<a; b++)
+					D.set(a, b, -Math.round(d[(int) ((long) a * (a-1) / 2) + b] * 1000000));
+		}
+		else {
+			//Alle Distanzen zwischen sequenzpaaren berechnen (jedes Paar nur einmal, parallel, siehe distances)
+			//mit -candidates nur die zu den naechsten Nachbarn nach MinHash
+			ScoreCache cache = cacheFile == null ? null : new ScoreCache(cacheFile, S, FASTA.indel_cost);
+			D = distances(sequences, S, threads, cache, sketches, candidates);
+			if (cache != null)
+				cache.close();
+		}
+		
+		if (nj){
+			//Neighbor-Joining statt 3: Baum im Newick-Format, mit Astlaengen und den Namen aus dem Fasta-File
+			int[] self = new int[sequences.size()];
+			for (int i=0; i<sequences.size(); i++)
+				self[i] = selfScore(sequences.get(i), S);
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+			NeighborJoining.fromScores(D, self).printNewick(out, headers(sequences));
+			out.flush();
+			return;
+		}
 		
 		/*3: solange die tabelle daten zu mehr als einer spezies entählt:
 		 * 		suche das am nächsten verwandte sequenzpaar (a,b)
 		 * 		drucke (a,b) aus - zeigt an dass (a,b) zusammengeführt wurde (gemeinsamer vorfahre)
 		 * 		loesche die zeilen und spalten zu a und b aus der tabelle und füge einen eintrag für einen gemeinsamen vorfahren ab ein
 		 * 		der abstand D(x,ab) der anderen spezies x zum vorfahren ab ist Mittelwert(D(x,a),D(x,b)). Das wird in die tabelle eingetragen
+		 * Das macht Clustering, in O(n^2) statt O(n^3) (siehe dort). Mit -upgma ist es der Mittelwert ueber alle Spezies in a und b.
 		 */
-		while (D.size() > 0){
-			//3.1 suche maximum in der tabelle - d.h. die beiden Spezies (a,b) die am nächsten verwandt sind.
-			int bestScore = Integer.MIN_VALUE;
-			String bestPair = null;
-			for(String speziespaar: D.keySet()){
-				if (D.get(speziespaar) > bestScore){
-					bestPair = speziespaar;
-					bestScore = D.get(bestPair);
+		Clustering tree = Clustering.averageLinkage(D, !upgma);
+		
+		//3.2 gib die Paare (a,b) aus
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+		tree.print(out);
+		out.flush();
+		
+		//Stammbaum sollte nun ausgegeben worden sein.
+	}
+	
+	/**
+	 * Die Namen der Sequenzen (Kommentarzeile im Fasta-File), fuer den Newick-Baum.
+	 */
+	static String[] headers(ArrayList<Sequence> sequences){
+		String[] names = new String[sequences.size()];
+		for (int i=0; i<sequences.size(); i++)
+			names[i] = sequences.get(i).header;
+		return names;
+	}
+	
+	/**
+	 * Score einer Sequenz mit sich selbst (ohne Luecken), fuer die Umrechnung der Scores in Abstaende beim Neighbor-Joining.
+	 */
+	static int selfScore(Sequence sequence, ScoringMatrix S){
+		byte[] codes = sequence.codes(S);
+		int score = 0;
+		for (int x=0; x<codes.length; x++)
+			score += S.score(codes[x], codes[x]);
+		return score;
+	}
+	
+	/**
+	 * Alignment-Abstaende aller Paare von Sequenzen. Der Abstand ist symmetrisch, also wird jedes Paar nur einmal ausgerechnet.
+	 * Die Paare werden auf threads Threads verteilt: jeder Thread holt sich das naechste noch nicht berechnete Paar,
+	 * die grossen (|a|*|b| Zellen) zuerst. Die kleinen fuellen dann am Ende die Luecken, statt dass alle auf ein letztes grosses Paar warten.
+	 * @param sequences
+	 * @param S Substitutionsmatrix
+	 * @param threads Anzahl Threads
+	 * @param cache Paare die da drin sind werden nicht neu ausgerechnet, die neuen kommen dazu. null: ohne Cache
+	 * @param sketches null: alle Paare. Sonst nur die Paare (a,b), bei denen b einer der candidates naechsten Nachbarn von a nach MinHash ist (oder umgekehrt).
+	 * 		Die anderen bekommen einen geschaetzten Score, siehe estimate.
+	 * @param candidates Anzahl Nachbarn
+	 * @return D(a,b) = Alignment-Abstand von Sequenz a und Sequenz b
+	 * @throws IOException wenn der Cache nicht wachsen kann
+	 */
+	static DistanceMatrix distances(final ArrayList<Sequence> sequences, final ScoringMatrix S, int threads, ScoreCache cache, MinHash sketches, int candidates) throws IOException{
+		int n = sequences.size();
+		final DistanceMatrix D = new DistanceMatrix(n);
+		long[] hash = new long[n];	//Inhalt der Sequenzen, fuer den Cache
+		if (cache != null)
+			for (int a=0;a<n;a++)
+				hash[a] = ScoreCache.hash(sequences.get(a), S);
+		
+		//nur mit Nachbarn: fuer jedes a die b > a, mit denen es aligniert wird
+		int[][] partners = null;
+		int pairs = (int) ((long) n * (n-1) / 2);
+		if (sketches != null){
+			partners = partners(sketches.nearest(candidates, threads));
+			pairs = 0;
+			for (int a=0;a<n;a++)
+				pairs += partners[a].length;
+		}
+		
+		//alle Paare a<b die nicht im Cache sind, nach Anzahl Zellen absteigend sortiert
+		final int[] first = new int[pairs];
+		final int[] second = new int[pairs];
+		final long[] cells = new long[pairs];
+		Integer[] order = new Integer[pairs];
+		int p = 0;
+		for (int a=0;a<n;a++)
+			for (int c=0;c<(partners == null ? n-a-1 : partners[a].length);c++){
+				int b = partners == null ? a+1+c : partners[a][c];
+				long cached = cache == null ? ScoreCache.MISSING : cache.get(hash[a], hash[b]);
+				if (cached != ScoreCache.MISSING){
+					D.set(a, b, (int) cached);
+					continue;
 				}
+				first[p] = a;
+				second[p] = b;
+				cells[p] = (long) sequences.get(a).length() * sequences.get(b).length();
+				order[p] = p;
+				p++;
 			}
-			// das Paar der 2 maximal verwandten Spezies (zB: "14,5") steht nun in der variable 'bestPair'. 
-			
-			//3.2 gib (a,b) aus
-			System.out.print("(" + bestPair + ") ");
-			//System.out.println(": " + bestScore);
-			
-			//3.3.  Wir updaten die Tabelle so dass *statt* den spezies a und b nun die spezies ab drin steht, mit entsprechendem abstand zu den anderen spezies.
-			//3.3.1 Wir nennen den Vorfahren von a und b "ab"
-			String a = bestPair.split(",")[0];
-			String b = bestPair.split(",")[1];
-			String Vorfahre = a + b;
-			//3.3.2 Wir fügen zu D die Abstände von allen Spezies x (außer a und b) zur neuen Spezies ab dazu
-			// und wir entfernen aus D die Abstände von x zu a bzw. zu b.
-			for (String x:spezies){
-				if (! x.equals(a) && ! x.equals(b)){
-					//abstand von x zu ab hinzufügen
-					D.put(x + "," + Vorfahre, /* (Abstand(x,a)+Abstand(x,b))/2 */ (D.get(x + "," + a) + D.get(x + "," + b)) / 2 );
-					D.put(Vorfahre + "," + x, D.get(x + "," + Vorfahre));
-					
-					//abstand von x zu a loeschen
-					D.remove(x + "," + a); D.remove(a + "," + x);
-					//abstand von x zu b loeschen
-					D.remove(x + "," + b); D.remove(b + "," + x);
-				}
+		pairs = p;
+		Arrays.sort(order, 0, pairs, new Comparator<Integer>(){
+			public int compare(Integer x, Integer y){
+				return cells[x] > cells[y] ? -1 : cells[x] < cells[y] ? 1 : 0;
 			}
-			
-			//Der abstand von a zu b muss auch noch geloescht werden.
-			D.remove(a + "," + b); D.remove(b + "," + a);
-			
-			//3.3.3 wir loeschen a und b aus der liste der speziesnamen und geben den Vorfahren, ab, hinzu.
-			spezies.remove(a);
-			spezies.remove(b);
-			spezies.add(Vorfahre);
+		});
+		final int[] queue = new int[pairs];
+		for (int k=0;k<pairs;k++)
+			queue[k] = order[k];
+		order = null;
+		
+		final AtomicInteger next = new AtomicInteger();	//naechstes Paar in queue
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Object>> workers = new ArrayList<Callable<Object>>();
+		for (int t=0;t<threads;t++)
+			workers.add(new Callable<Object>(){
+				public Object call(){
+					int k;
+					while ((k = next.getAndIncrement()) < queue.length){
+						int a = first[queue[k]];
+						int b = second[queue[k]];
+						D.set(a, b, FASTA.AlignmentDistance(sequences.get(a), sequences.get(b), S));
+					}
+					return null;
+				}
+			});
+		try {
+			//invokeAll returns when all pairs are done
+			for (Future<Object> f : pool.invokeAll(workers))
+				f.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
 		}
 		
-		//Stammbaum sollte nun ausgegeben worden sein.
+		if (cache != null)
+			for (int k=0;k<pairs;k++)
+				cache.put(hash[first[k]], hash[second[k]], D.get(first[k], second[k]));
+		
+		if (partners != null)
+			estimate(D, partners, sequences, S, sketches);
+		return D;
+	}
+	
+	/**
+	 * Schaetzt die Scores der Paare, die nicht aligniert wurden, aus ihrem MinHash-Abstand m.
+	 * Von den alignierten Paaren wissen wir, wie viel Score unter dem der Sequenzen mit sich selbst sie pro Einheit m verlieren
+	 * (self(a)+self(b))/2 - D(a,b) = r * m. Mit dem Median von r ist die Schaetzung (self(a)+self(b))/2 - r * m.
+	 * Sehr weit entfernte Paare (nichts gemeinsam, m = 1) sind dann alle ungefaehr gleich weit weg, was fuer den Baum reicht.
+	 * @param partners partners[a]: die b > a die aligniert wurden, sortiert
+	 */
+	static void estimate(DistanceMatrix D, int[][] partners, ArrayList<Sequence> sequences, ScoringMatrix S, MinHash sketches){
+		int n = sequences.size();
+		int[] self = new int[n];
+		for (int a=0;a<n;a++)
+			self[a] = selfScore(sequences.get(a), S);
+		
+		int pairs = 0;
+		for (int a=0;a<n;a++)
+			pairs += partners[a].length;
+		double[] ratio = new double[pairs];
+		int count = 0;
+		for (int a=0;a<n;a++)
+			for (int b: partners[a]){
+				double m = sketches.distance(a, b);
+				if (m > 0)
+					ratio[count++] = ((self[a] + self[b]) / 2.0 - D.get(a, b)) / m;
+			}
+		Arrays.sort(ratio, 0, count);
+		double r = count == 0 ? 0 : ratio[count / 2];
+		
+		for (int a=0;a<n;a++){
+			int c = 0;
+			for (int b=a+1;b<n;b++){
+				if (c < partners[a].length && partners[a][c] == b)
+					c++;
+				else
+					D.set(a, b, (int) Math.round((self[a] + self[b]) / 2.0 - r * sketches.distance(a, b)));
+			}
+		}
+	}
+	
+	/**
+	 * Macht aus den Nachbarlisten die Paare: partners[a] sind die b > a, die Nachbar von a sind oder a als Nachbarn haben. Sortiert, ohne doppelte.
+	 */
+	static int[][] partners(int[][] neighbours){
+		int n = neighbours.length;
+		int[] count = new int[n];
+		for (int a=0;a<n;a++)
+			for (int b: neighbours[a])
+				count[Math.min(a, b)]++;
+		int[][] partners = new int[n][];
+		for (int a=0;a<n;a++)
+			partners[a] = new int[count[a]];
+		Arrays.fill(count, 0);
+		for (int a=0;a<n;a++)
+			for (int b: neighbours[a]){
+				int x = Math.min(a, b);
+				partners[x][count[x]++] = Math.max(a, b);
+			}
+		for (int a=0;a<n;a++){
+			Arrays.sort(partners[a]);
+			int distinct = 0;
+			for (int c=0;c<partners[a].length;c++)
+				if (distinct == 0 || partners[a][c] != partners[a][distinct-1])
+					partners[a][distinct++] = partners[a][c];
+			partners[a] = Arrays.copyOf(partners[a], distinct);
+		}
+		return partners;
 	}
 }
@@ -0,0 +1,168 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fills the Needleman-Wunsch matrix with several threads.
+ *
+ * The matrix is cut into blocks of BLOCK x BLOCK cells. Block (bi,bj) only needs the block above, the one to the left
+ * and the one to the upper-left, so all blocks on one anti-diagonal (bi+bj = k) of blocks can be filled at the same time.
+ * We go through the anti-diagonals one after the other and hand the blocks of each to a thread pool.
+ * Each block is filled with the same recurrence as GlobalAlignment.main, so scores and arrows are exactly the same.
+ *
+ * Memory: only the borders between blocks are kept, O(|T|+|P|) ints. Plus the traceback matrix, if wanted.
+ *
+ * Blocks start at even columns, so with the traceback matrix two threads never write into the same byte.
+ * @author kehwan
+ *
+ */
+public class Wavefront {
+	static final int BLOCK = 256;	//must be even, see above
+
+	/**
+	 * Calculates the score of the optimal alignments of template with probe, and optionally the backtracking information.
+	 * @param template t1...tm, goes on top of the alignment
+	 * @param probe p1...pn, goes in the bottom
+	 * @param S substitution matrix
+	 * @param indel_cost score of a single insertion or deletion (negative)
+	 * @param A backtracking matrix for n and m to fill out, or null for scores only
+	 * @param threads number of threads to use
+	 * @return score of the optimal alignments
+	 */
+	static int fill(String template, String probe, ScoringMatrix S, int indel_cost, TracebackMatrix A, int threads){
+		return fill(S.encode(template), S.encode(probe), S, indel_cost, A, threads);
+	}
+
+	/**
+	 * Same, for encoded sequences (see ScoringMatrix.encode and Sequence).
+	 * @param t codes of the template
+	 * @param p codes of the probe
+	 */
+	static int fill(byte[] t, byte[] p, ScoringMatrix S, int indel_cost, TracebackMatrix A, int threads){
+		int m = t.length;
+		int n = p.length;
+		int blockRows = n / BLOCK + 1;	//row band bi is rows bi*BLOCK ... (bi+1)*BLOCK-1, without row 0
+		int blockCols = m / BLOCK + 1;	//same for columns
+
+		//Borders: bottom[j] is the bottom row of the last block filled in column j, right[i] the right column of the last block filled in row i.
+		//corner[bi-bj+blockCols-1] is the lower right cell of the last block on that diagonal of blocks, i.e. the upper left neighbour of the next one.
+		int[] bottom = new int[m+1];
+		int[] right = new int[n+1];
+		int[] corner = new int[blockRows + blockCols];
+
+		//Row 0 and column 0, as in main
+		for (int j=0;j<=m;j++){
+			bottom[j] = j * indel_cost;
+			if (A != null)
+				A.set(0, j, TracebackMatrix.DEL);
+		}
+		for (int i=0;i<=n;i++){
+			right[i] = i * indel_cost;
+			if (A != null && i > 0)
+				A.set(i, 0, TracebackMatrix.INS);
+		}
+
+		if (n == 0 || m == 0)
+			return (n + m) * indel_cost;
+
+		//Scores of every residue against all of the template (query profile)
+		int[][] profile = S.profile(t);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (int k=0;k<blockRows+blockCols-1;k++){	//anti-diagonal k
+				List<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+				for (int bi=Math.max(0, k-blockCols+1);bi<=Math.min(k, blockRows-1);bi++)
+					blocks.add(new Block(p, profile, indel_cost, A, bi, k-bi, bottom, right, corner, blockCols));
+				//invokeAll returns when all blocks of this anti-diagonal are done
+				for (Future<Object> f : pool.invokeAll(blocks))
+					f.get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return bottom[m];
+	}
+
+	/**
+	 * One block of the matrix: rows i0...i1, columns j0...j1.
+	 */
+	static class Block implements Callable<Object> {
+		final byte[] probe;
+		final int[][] profile;
+		final int indel_cost;
+		final TracebackMatrix A;
+		final int bi, bj;
+		final int[] bottom, right, corner;
+		final int diagonal;
+
+		Block(byte[] probe, int[][] profile, int indel_cost, TracebackMatrix A, int bi, int bj, int[] bottom, int[] right, int[] corner, int blockCols){
+			this.probe = probe;
+			this.profile = profile;
+			this.indel_cost = indel_cost;
+			this.A = A;
+			this.bi = bi;
+			this.bj = bj;
+			this.bottom = bottom;
+			this.right = right;
+			this.corner = corner;
+			this.diagonal = bi - bj + blockCols - 1;
+		}
+
+		public Object call(){
+			int i0 = Math.max(1, bi * BLOCK);
+			int i1 = Math.min(probe.length, (bi+1) * BLOCK - 1);
+			int j0 = Math.max(1, bj * BLOCK);
+			int j1 = Math.min(profile[0].length, (bj+1) * BLOCK - 1);
+			if (i0 > i1 || j0 > j1)
+				return null; //can only happen at the right or lower edge
+
+			//row above the block, with the upper left cell in front
+			int[] above = new int[j1-j0+2];
+			int[] row = new int[j1-j0+2];
+			if (bi == 0)
+				above[0] = (j0-1) * indel_cost;
+			else if (bj == 0)
+				above[0] = (i0-1) * indel_cost;
+			else
+				above[0] = corner[diagonal];
+			System.arraycopy(bottom, j0, above, 1, j1-j0+1);
+
+			for (int i=i0;i<=i1;i++){	//row i
+				row[0] = right[i];	//D(i,j0-1), from the block to the left
+				int[] s_i = profile[probe[i-1]];	//scores of p_i against the template
+				for (int j=j0;j<=j1;j++){	//cell (i,j)
+					int x = j - j0 + 1;
+					int score_if_match = above[x-1] + s_i[j-1];
+					int score_if_del = row[x-1] + indel_cost;
+					int score_if_ins = above[x] + indel_cost;
+					row[x] = Math.max(Math.max(score_if_match, score_if_del), score_if_ins);
+
+					if (A != null){
+						int arrows = 0;
+						if (score_if_match == row[x])
+							arrows |= TracebackMatrix.MUT;
+						if (score_if_ins == row[x])
+							arrows |= TracebackMatrix.INS;
+						if (score_if_del == row[x])
+							arrows |= TracebackMatrix.DEL;
+						A.set(i, j, arrows);
+					}
+				}
+				right[i] = row[j1-j0+1];
+				int[] swap = above; above = row; row = swap;
+			}
+			System.arraycopy(above, 1, bottom, j0, j1-j0+1);
+			corner[diagonal] = above[j1-j0+1];
+			return null;
+		}
+	}
+}
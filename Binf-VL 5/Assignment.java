@@ -1,17 +1,14 @@
 /**
  * Assignment 5, Bioinformatics 2012
- * Uses the excellent 'graphStream' library from http://graphstream-project.org
+ * Uses the excellent 'graphStream' library from http://graphstream-project.org for the display.
+ * The network itself is an IntGraph (int arrays), graphStream's objects per node and edge are too heavy for whole organisms.
  * @author kehwan
  *
  */
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
-import org.graphstream.algorithm.ConnectedComponents;
-import org.graphstream.algorithm.Toolkit;
 import org.graphstream.graph.*;
 import org.graphstream.graph.implementations.SingleGraph;
 
@@ -28,152 +25,192 @@ public class Assignment {
 		if (args.length <2 ){
 			System.out.println("First argument must be name of SIF file to read!");
 			System.out.println("Second argument must be a parameter k >= 0 for the determination of the k-cores!");
+			System.out.println("Optional argument -nodisplay: do not show the largest k-core in a window");
+			System.out.println("Optional argument -approximate E: estimate the cluster coefficients by sampling, within +-E (e.g. 0.01)");
+			System.out.println("Optional argument -confidence C: confidence of the estimate (default 0.95)");
+			System.out.println("Optional argument -samples N: sample at most N pairs of neighbors (default 1000000), the interval gets wider if that is not enough");
 			System.exit(-1);
 		}
-		//open the sif file
-		SIF s = new SIF(args[0]);
-		String[] partner;
-		
-		//make undirected graph
-		Graph g = new SingleGraph("Drosophila");
-		g.setStrict(false);
-		int edgeID = 1;
-		while ( (partner = s.next())  != null){
-			g.addNode(partner[0]);
-			g.addNode(partner[1]);
-			g.addEdge(Integer.toString(edgeID++), partner[0], partner[1], false);
+		boolean display = true;
+		double approximate = 0;	//0: exact cluster coefficients
+		double confidence = 0.95;
+		int budget = 1000000;
+		for (int a=2;a<args.length;a++){
+			if (args[a].equals("-nodisplay"))
+				display = false;
+			else if (args[a].equals("-approximate") && a+1 < args.length){
+				approximate = Double.parseDouble(args[++a]);
+				if (!(approximate > 0)){
+					System.out.println("Parameter -approximate E needs E > 0");
+					System.exit(-1);
+				}
+			}
+			else if (args[a].equals("-confidence") && a+1 < args.length)
+				confidence = Double.parseDouble(args[++a]);
+			else if (args[a].equals("-samples") && a+1 < args.length)
+				budget = Integer.parseInt(args[++a]);
+		}
+		if (!(confidence > 0 && confidence < 1)){
+			System.out.println("Parameter -confidence C needs 0 < C < 1 (e.g. 0.95, not 95)");
+			System.exit(-1);
+		}
+		if (budget < 1){
+			System.out.println("Parameter -samples N needs N >= 1");
+			System.exit(-1);
 		}
+		//read the sif file into an undirected graph
+		IntGraph g = IntGraph.read(args[0], Runtime.getRuntime().availableProcessors());
 		System.out.println("Done reading file.");
-		System.out.println("Proteins:\t" + g.getNodeCount());
-		int max_edges = g.getNodeCount() * (g.getNodeCount() - 1)/2; //number of edges in a clique is n*(n-1)/2
-		System.out.println("Interactions:\t" + g.getEdgeCount() + " (density " + (100.0*g.getEdgeCount()/max_edges)+"%)");
+		System.out.println("Proteins:\t" + g.nodeCount());
+		long max_edges = (long) g.nodeCount() * (g.nodeCount() - 1)/2; //number of edges in a clique is n*(n-1)/2
+		System.out.println("Interactions:\t" + g.edgeCount() + " (density " + (100.0*g.edgeCount()/max_edges)+"%)");
 		
 		/*compute cluster coefficient*/
 
 		//there is a function for the cluster coefficient in class Toolkit from the graphStream library, but im afraid we'd get 0pts if we compute it in just 1 line...)
-		//we're already avoiding having to implement an adjacency list, etc
-		float CC = 0;
 		int inner_nodes = 0;	//number of nodes with degree > 1
-		for (Node n:g){
-			if (n.getDegree() > 1){
+		for (int n=0;n<g.nodeCount();n++)
+			if (g.degree(n) > 1)
 				inner_nodes++;
-				int links_among_neighbors = 0;
-				int max_links = ((n.getDegree())*(n.getDegree() - 1)/2);
-				
-				//collect neighbors of n
-				HashSet<Node> neighbors = new HashSet<Node>();
-				for (Edge e : n.getEdgeSet())
-					neighbors.add(e.getOpposite(n));
-				
-				//count links among the neighbors
-				for (Node x : (Set<Node>) neighbors.clone()){ //this does exactly what for (Node x : neighbors) ought to do.
-					neighbors.remove(x);
-					for(Node y: neighbors)
-						if (x.hasEdgeBetween(y))
-							links_among_neighbors++;
-				}
-				
-				float cc_n = (float) links_among_neighbors / max_links; //clustering coefficient of n
+		if (approximate > 0){
+			//random pairs of neighbors instead of all triangles (see WedgeSampling)
+			Random random = new Random();
+			WedgeSampling.Estimate average = WedgeSampling.average(g, approximate, confidence, budget, random);
+			WedgeSampling.Estimate global = WedgeSampling.global(g, approximate, confidence, budget, random);
+			String interval = " (" + average.samples + " samples, " + (100*confidence) + "% confidence)";
+			System.out.println("Cluster coefficient, estimated:\t" + average.value + " +- " + average.error + interval);
+			System.out.println("Cluster coefficient, average over proteins that are not leaves or loners, estimated:\t" + average.value * g.nodeCount() / inner_nodes + " +- " + average.error * g.nodeCount() / inner_nodes);
+			System.out.println("Global cluster coefficient (closed fraction of all pairs of neighbors), estimated:\t" + global.value + " +- " + global.error);
+		}
+		else {
+			//triangles through each protein = links among its neighbors, counted with sorted lists on all processors (see Triangles)
+			ForkJoinPool pool = new ForkJoinPool();
+			long[] triangles = Triangles.count(g, pool);
+			pool.shutdown();
+			double[] cc = Triangles.coefficients(g, triangles);
+			float CC = 0;
+			for (int n=0;n<g.nodeCount();n++){
+				float cc_n = (float) cc[n]; //clustering coefficient of n
 				CC += cc_n; //CC: global clustering coefficient, i.e. average cc_n over all n
 				//note: nodes with degree < 2 count as having a clustering coefficient of 0
 			}
+			CC /= g.nodeCount();
+			System.out.println("Cluster coefficient:\t" + CC);
+			System.out.println("Cluster coefficient, average over all proteins (same definition as Toolkit.averageClusteringCoefficient):\t" + Triangles.average(cc));
+			System.out.println("Cluster coefficient, average over proteins that are not leaves or loners:\t" + (CC * g.nodeCount()) / inner_nodes);
 		}
-		CC /= g.getNodeCount();
-		System.out.println("Cluster coefficient:\t" + CC);
-		System.out.println("Cluster coefficient, computed with library:" + Toolkit.averageClusteringCoefficient(g));
-		System.out.println("Cluster coefficient, average over proteins that are not leaves or loners:\t" + (CC * g.getNodeCount()) / inner_nodes);
-		System.out.println("Number of proteins that are leaves (1 interaction partner) or loners (0):\t" + (g.getNodeCount() - inner_nodes) + " out of " + g.getNodeCount());
+		System.out.println("Number of proteins that are leaves (1 interaction partner) or loners (0):\t" + (g.nodeCount() - inner_nodes) + " out of " + g.nodeCount());
 		/*--done with cluster coefficient--*/
 		
 		//order proteins by degree (nr of interaction partners)
-		Node[] nodes = new Node[g.getNodeCount()]; //make array to contain the list of nodes
-		g.getNodeSet().toArray(nodes); //put the graph's nodes into it
-		Arrays.sort(nodes, new DegreeComparer()); //sort! DegreeComparer defines the total order to sort by, in this case, degree.
+		int[] nodes = g.byDegree();
 		
 		System.out.println("The top five proteins by number of interaction partners are:");
-		for(int i=0; i < Math.min(5, g.getNodeCount()); i++)
-			System.out.println(nodes[i].getId()+"\t"+nodes[i].getDegree());
+		for(int i=0; i < Math.min(5, g.nodeCount()); i++)
+			System.out.println(g.name(nodes[i])+"\t"+g.degree(nodes[i]));
 		
 		//Prune graph down using the k-cores method
 		int k = Integer.parseInt(args[1]);
-		//iterate over all nodes, eliminating nodes that are not part of a k-core, leaving a graph where all connected components are k-cores		
-		trimToKcores(g,k,true);
+		//core numbers of all proteins at once: the k-core for any k is just core[v] >= k
+		int[] order = new int[g.nodeCount()];
+		int[] core = g.coreNumbers(order);
+		int maxCore = 0;
+		for (int v=0;v<g.nodeCount();v++)
+			maxCore = Math.max(maxCore, core[v]);
+		int inMaxCore = 0;
+		for (int v=0;v<g.nodeCount();v++)
+			if (core[v] == maxCore)
+				inMaxCore++;
+		System.out.println("The highest k with a non-empty k-core is " + maxCore + " (" + inMaxCore + " proteins)");
+		//eliminate nodes that are not part of a k-core, leaving a graph where all connected components are k-cores		
+		trimToKcores(g,core,order,k,display);
 	}
 	
 	/**
 	 * Den gegebenen Graphen auf seine k-cores heruntertrimmen.
 	 * Anschließend alles wegschneiden was nicht zum größten k-core gehört.
-	 * Ergebnis anzeigen. //FIXME: Zweite und dritte funktion in eigene funktion auslagern...
+	 * Ergebnis anzeigen (mit graphStream, optional).
+	 * Der Graph selbst bleibt unverändert, geloescht wird nur in alive[].
 	 * @param g
+	 * @param core Core-Nummern aus g.coreNumbers(order)
+	 * @param order Reihenfolge, in der coreNumbers die Knoten entfernt hat
 	 * @param k
+	 * @param display Ergebnis anzeigen, bei kleinen Graphen (< 500 Knoten) auch den Ablauf
 	 * @throws InterruptedException
 	 */
-	static void trimToKcores(Graph g, int k, boolean visualize_algorithm) throws InterruptedException{
-		System.setProperty("gs.ui.renderer", "org.graphstream.ui.j2dviewer.J2DGraphRenderer");
-		boolean displaying = false;
-		
+	static void trimToKcores(IntGraph g, int[] core, int[] order, int k, boolean display) throws InterruptedException{
 		/**
-		 * Algorithmus zur reduktion eines graphen auf alle seine k-cores, aus der Übung
-		 * Schrittweises eliminieren aller knoten die nicht zu irgendeinem k-core gehoeren
-		 * Verstehe selbst nicht ganz, wieso das funktioniert
+		 * Algorithmus zur reduktion eines graphen auf alle seine k-cores, aus der Übung:
+		 * Knoten mit weniger als k Nachbarn loeschen, bis es keine mehr gibt.
+		 * Das hat coreNumbers schon fuer alle k auf einmal gemacht: uebrig bleiben die Knoten mit core[v] >= k,
+		 * und die geloeschten sind die ersten in order (aufsteigend nach Core-Nummer).
 		 */
-		int N;
-		do {
-			//visualize (optional)
-			if (visualize_algorithm && !displaying && g.getNodeCount() < 500){
-				displaying = true;
-				g.display(); //this displays the graph graphically
-				Thread.sleep(5000);
-			}
-			
-			//actual algorithm is here
-			N = g.getNodeCount();
-			Node[] S = new Node[g.getNodeCount()];
-			g.getNodeSet().toArray(S); //workaround: for (Node n:g) {...} does not work, because modifying g while iterating over it breaks iteration, and some nodes are not selected for iterating over.
-			
-			for(Node n: S){				
-				int effective_degree = n.getDegree(); //eff-degree: anzahl nachbarn die mindestestens degree k haben
-				if (effective_degree < k)
-					g.removeNode(n);
-				else {
-					for (Edge e : n.getEdgeSet())
-						if (e.getOpposite(n).getDegree() < k)
-							effective_degree--;
-					if (effective_degree < k)
-						g.removeNode(n);
-				}
-				if (displaying)
-					Thread.sleep(25);
-			}
-		} while ( g.getNodeCount() < N);
-		
-		//split graph into ints connected components (=K-cores)
-		ConnectedComponents cc_algo = new ConnectedComponents();
-		cc_algo.init(g);
+		int n = g.nodeCount();
+		boolean[] alive = new boolean[n];
+		int count = 0;	//removed: order[0...count-1]
+		for (int v=0;v<n;v++){
+			alive[v] = core[v] >= k;
+			if (!alive[v])
+				count++;
+		}
 		
-		//get the largest k-core
-		List<Node> kcore;
-		kcore = cc_algo.getGiantComponent();
+		//split graph into its connected components (=K-cores), get the largest one
+		int[] component = g.components(alive);
+		int[] size = new int[n+1];
+		int giant = -1;
+		for (int v=0;v<n;v++)
+			if (component[v] >= 0 && ++size[component[v]] > (giant < 0 ? 0 : size[giant]))
+				giant = component[v];
 		
 		//print out proteins
-		System.out.println("The largest "+  k+"-core, with "+kcore.size()+" proteins, consists of:");
-			for (Node n: kcore)
-				System.out.println(n.getId());
-		
-		cc_algo.terminate();	
-			
-		//delete all other nodes from graph	//FIXME: (this is a dirty workaround to mimic the nonexistent operation of 'create subgraph from graph g and node collection kcore'
-		Node[] G = new Node[g.getNodeCount()];
-		g.getNodeSet().toArray(G);				//FIXME: dirty workaround for doing for (node n : g)
-		for (Node n : G)
-			if (!kcore.contains(n))
-				g.removeNode(n);
+		System.out.println("The largest "+  k+"-core, with "+(giant < 0 ? 0 : size[giant])+" proteins, consists of:");
+		for (int v=0;v<n;v++)
+			if (component[v] == giant && giant >= 0)
+				System.out.println(g.name(v));
 		
-		//display graph (I.e. largest k-core), if not already displaying
-		if (!displaying)
-			g.display();
+		if (!display)
+			return;
+		System.setProperty("gs.ui.renderer", "org.graphstream.ui.j2dviewer.J2DGraphRenderer");
+		if (n < 500){
+			//show how the algorithm removes the nodes, then everything outside the largest k-core
+			Graph shown = toGraphStream(g, null);
+			shown.display();
+			Thread.sleep(5000);
+			for (int x=0;x<count;x++){
+				shown.removeNode(g.name(order[x]));
+				Thread.sleep(25);
+			}
+			for (int v=0;v<n;v++)
+				if (alive[v] && component[v] != giant)
+					shown.removeNode(g.name(v));
+		}
+		else {
+			boolean[] kcore = new boolean[n];
+			for (int v=0;v<n;v++)
+				kcore[v] = component[v] == giant && giant >= 0;
+			toGraphStream(g, kcore).display();
+		}
 
 		 	//TODO: configure display to include protein names
 			//TODO maybe: make algorithm self-explanatory by improving the video visualization (colors for currently selected neighborhood, ...)
 	}
+	
+	/**
+	 * graphStream graph of the nodes with keep[v] (all if null) and the edges between them, for the display.
+	 */
+	static Graph toGraphStream(IntGraph g, boolean[] keep){
+		Graph shown = new SingleGraph("Drosophila");
+		shown.setStrict(false);
+		for (int v=0;v<g.nodeCount();v++)
+			if (keep == null || keep[v])
+				shown.addNode(g.name(v));
+		int edgeID = 1;
+		for (int v=0;v<g.nodeCount();v++)
+			for (int x=g.offset[v];x<g.offset[v+1];x++){
+				int u = g.adjacency[x];
+				if (u > v && (keep == null || (keep[v] && keep[u])))
+					shown.addEdge(Integer.toString(edgeID++), g.name(v), g.name(u), false);
+			}
+		return shown;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Undirected graph with the proteins numbered 0...n-1, stored as compressed sparse rows:
+ * the neighbours of node v are adjacency[offset[v]...offset[v+1]-1], sorted ascending, without duplicates and without v itself.
+ * Two int arrays for the whole graph, instead of an object per node and per edge (and a String id per edge) as in graphStream.
+ * Degree is a subtraction, "is there an edge between x and y" a binary search, and walking over the neighbours reads memory in order.
+ * The protein names are only needed for the output (name(v)).
+ * @author kehwan
+ *
+ */
+public class IntGraph {
+	final String[] names;	//names[v]: protein name of node v
+	final int[] offset;		//n+1 entries
+	final int[] adjacency;	//2 entries per edge
+
+	private IntGraph(String[] names, int[] offset, int[] adjacency){
+		this.names = names;
+		this.offset = offset;
+		this.adjacency = adjacency;
+	}
+
+	/**
+	 * Reads all interactions of a SIF file, and the proteins without interactions. Nodes are numbered in the order the proteins first appear in the file.
+	 * @param sif
+	 * @throws IOException
+	 */
+	static IntGraph read(SIF sif) throws IOException{
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		String[] names = new String[1024];
+		int[] a = new int[1024], b = new int[1024];
+		int edges = 0;
+		String[] entry;
+		while ((entry = sif.nextEntry()) != null){
+			if (edges == a.length){
+				a = Arrays.copyOf(a, 2*edges);
+				b = Arrays.copyOf(b, 2*edges);
+			}
+			for (int x=0;x<entry.length;x++){
+				Integer id = ids.get(entry[x]);
+				if (id == null){
+					id = ids.size();
+					ids.put(entry[x], id);
+					if (id == names.length)
+						names = Arrays.copyOf(names, 2*id);
+					names[id] = entry[x];
+				}
+				if (x == 0)
+					a[edges] = id;
+				else
+					b[edges] = id;
+			}
+			if (entry.length == 2)	//otherwise a protein without interactions
+				edges++;
+		}
+		return fromEdges(Arrays.copyOf(names, ids.size()), a, b, edges);
+	}
+
+	/**
+	 * Reads a SIF file with SIF.parse (memory-mapped, several threads). Same graph and numbering as read(new SIF(filename)).
+	 * @param filename
+	 * @param threads
+	 * @throws IOException
+	 */
+	static IntGraph read(String filename, int threads) throws IOException{
+		SIF.Network network = SIF.parse(filename, threads);
+		return fromEdges(network.names, network.a, network.b, network.edges);
+	}
+
+	/**
+	 * Graph with the given edges a[x]-b[x], x < edges. Duplicates (also b-a after a-b) and self-loops are dropped.
+	 * @param names protein names, one per node
+	 */
+	static IntGraph fromEdges(String[] names, int[] a, int[] b, int edges){
+		int n = names.length;
+		//count, then fill both directions (counting sort by node)
+		int[] offset = new int[n+1];
+		for (int x=0;x<edges;x++)
+			if (a[x] != b[x]){
+				offset[a[x]+1]++;
+				offset[b[x]+1]++;
+			}
+		for (int v=0;v<n;v++)
+			offset[v+1] += offset[v];
+		int[] adjacency = new int[offset[n]];
+		int[] next = Arrays.copyOf(offset, n);
+		for (int x=0;x<edges;x++)
+			if (a[x] != b[x]){
+				adjacency[next[a[x]]++] = b[x];
+				adjacency[next[b[x]]++] = a[x];
+			}
+		//sort each row and drop duplicates, moving the rows together
+		int w = 0;
+		int start = 0;
+		for (int v=0;v<n;v++){
+			int end = offset[v+1];
+			Arrays.sort(adjacency, start, end);
+			offset[v] = w;
+			for (int x=start;x<end;x++)
+				if (x == start || adjacency[x] != adjacency[x-1])
+					adjacency[w++] = adjacency[x];
+			start = end;
+		}
+		offset[n] = w;
+		return new IntGraph(names, offset, w == adjacency.length ? adjacency : Arrays.copyOf(adjacency, w));
+	}
+
+	public int nodeCount(){
+		return names.length;
+	}
+
+	public int edgeCount(){
+		return adjacency.length / 2;
+	}
+
+	public int degree(int v){
+		return offset[v+1] - offset[v];
+	}
+
+	String name(int v){
+		return names[v];
+	}
+
+	/**
+	 * Is there an edge between x and y? Binary search in the neighbours of the one with the smaller degree.
+	 */
+	boolean hasEdge(int x, int y){
+		if (degree(x) > degree(y)){
+			int swap = x; x = y; y = swap;
+		}
+		return Arrays.binarySearch(adjacency, offset[x], offset[x+1], y) >= 0;
+	}
+
+	/**
+	 * The nodes, ordered by degree, highest first. Nodes with the same degree stay in order (like Arrays.sort with DegreeComparer).
+	 */
+	int[] byDegree(){
+		int maxDegree = 0;
+		for (int v=0;v<nodeCount();v++)
+			maxDegree = Math.max(maxDegree, degree(v));
+		//counting sort, stable
+		int[] start = new int[maxDegree + 2];
+		for (int v=0;v<nodeCount();v++)
+			start[maxDegree - degree(v) + 1]++;
+		for (int d=0;d<=maxDegree;d++)
+			start[d+1] += start[d];
+		int[] order = new int[nodeCount()];
+		for (int v=0;v<nodeCount();v++)
+			order[start[maxDegree - degree(v)]++] = v;
+		return order;
+	}
+
+	/**
+	 * Core number of every node (Batagelj and Zaversnik 2003): the largest k such that the node is in the k-core, i.e. in a
+	 * subgraph where every node has at least k neighbours. The node with the smallest degree is removed, again and again;
+	 * its degree at that time (never less than the ones before) is its core number. The nodes are kept sorted by their
+	 * current degree in one array, with the start of each degree in bin[]: lowering a degree by one swaps the node to the
+	 * start of its bin and moves the start one up. O(V+E) for all k at once, the graph is not changed.
+	 * @param order if not null (n entries), gets the nodes in the order they were removed, i.e. by core number ascending
+	 * @return core[v]: core number of v. The k-core consists of the nodes with core[v] >= k.
+	 */
+	int[] coreNumbers(int[] order){
+		int n = nodeCount();
+		int[] core = new int[n];	//current degree, at the end the core number
+		int maxDegree = 0;
+		for (int v=0;v<n;v++){
+			core[v] = degree(v);
+			maxDegree = Math.max(maxDegree, core[v]);
+		}
+		//counting sort by degree: vert[] the nodes, pos[v] where v is in vert, bin[d] where degree d starts
+		int[] bin = new int[maxDegree + 1];
+		for (int v=0;v<n;v++)
+			bin[core[v]]++;
+		int start = 0;
+		for (int d=0;d<=maxDegree;d++){
+			int size = bin[d];
+			bin[d] = start;
+			start += size;
+		}
+		int[] vert = order != null ? order : new int[n];
+		int[] pos = new int[n];
+		for (int v=0;v<n;v++){
+			pos[v] = bin[core[v]]++;
+			vert[pos[v]] = v;
+		}
+		for (int d=maxDegree;d>0;d--)
+			bin[d] = bin[d-1];
+		bin[0] = 0;
+
+		for (int i=0;i<n;i++){
+			int v = vert[i];
+			for (int x=offset[v];x<offset[v+1];x++){
+				int u = adjacency[x];
+				if (core[u] > core[v]){
+					//move u to the start of its bin, then to the bin below
+					int du = core[u];
+					int pu = pos[u];
+					int pw = bin[du];
+					int w = vert[pw];
+					if (u != w){
+						pos[u] = pw;
+						vert[pu] = w;
+						pos[w] = pu;
+						vert[pw] = u;
+					}
+					bin[du]++;
+					core[u]--;
+				}
+			}
+		}
+		return core;
+	}
+
+	/**
+	 * The connected components of the nodes with alive[v] (and the edges between them).
+	 * @param alive which nodes are part of the graph, null for all
+	 * @return component[v]: number of the component of v (from 0), -1 for nodes that are not alive
+	 */
+	int[] components(boolean[] alive){
+		int n = nodeCount();
+		int[] component = new int[n];
+		Arrays.fill(component, -1);
+		int[] queue = new int[n];
+		int count = 0;
+		for (int s=0;s<n;s++){
+			if (component[s] >= 0 || (alive != null && !alive[s]))
+				continue;
+			//breadth first search from s
+			int head = 0, tail = 0;
+			queue[tail++] = s;
+			component[s] = count;
+			while (head < tail){
+				int v = queue[head++];
+				for (int x=offset[v];x<offset[v+1];x++){
+					int u = adjacency[x];
+					if (component[u] < 0 && (alive == null || alive[u])){
+						component[u] = count;
+						queue[tail++] = u;
+					}
+				}
+			}
+			count++;
+		}
+		return component;
+	}
+}
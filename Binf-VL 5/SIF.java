@@ -3,53 +3,341 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Wraps SIF files
+ * Format: one interaction per line, "source type target1 target2 ...", e.g. "Q9VHF6 pp Q9VG03". Any interaction type, any number
+ * of targets (one interaction per target). A line with only a source is a protein without interactions.
+ * If a line contains tabs, only tabs separate the fields (so names may contain blanks), otherwise blanks and tabs do, as in Cytoscape.
+ * No regular expressions: the lines are cut into fields by hand.
+ *
+ * next() reads one interaction at a time, nextEntry() also the proteins without interactions. parse() reads the whole file at once, memory-mapped, with several threads
+ * (one piece of the file each, cut at line ends), and returns the interactions as pairs of protein numbers.
  * @author kehwan
  *
  */
 public class SIF {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CHUNK = 1 << 24;	//parse() gives each thread pieces of about 16MB
+
 	private BufferedReader r;
-	
+	private String[] fields = new String[0];	//of the current line
+	private int target;							//next target in fields
+
 	/**
 	 * Opens a sif file for reading
 	 * @param filename
 	 * @throws FileNotFoundException
 	 */
 	SIF(String filename) throws FileNotFoundException{
-		r = new BufferedReader(new InputStreamReader(new FileInputStream(filename)));
+		r = new BufferedReader(new InputStreamReader(new FileInputStream(filename), UTF8));
 	}
-	
+
 	/**
-	 * Closes file. Runs automatically when object is garbage collected.
+	 * Closes the file.
 	 */
-	protected void finalize(){
-		if (r!=null)
-			try {
-				r.close();
-			} catch (IOException e) {System.out.println("[SIF reader]Warning: finalizer failed to close a file. This may cause the program to use more memory.");}
+	void close() throws IOException{
+		r.close();
 	}
+
 	/**
 	 * Get the next pair of IDs of interacting proteins, as an array of two strings.
-	 * Returns null when there are no more interactions in the file.
+	 * Returns null when there are no more interactions in the file. Proteins without interactions are skipped, see nextEntry().
 	 * @return Array with two protein names, or null if no more entries in file.
 	 * @throws IOException
 	 */
 	String[] next() throws IOException{
-		String line;
-		assert(r != null);
-		//Read the next line, expecting format PROTEINNAME pp PROTEINNAME. Skip over any lines not having this format, issuing warnings.
-		while ((line = r.readLine()) != null && ! line.matches("^\\s*(\\w|.)+\\s+pp\\s+(\\w|.)+\\s*$"))
-			System.out.println("[SIF reader]Warning: the following line did not have the expected format and was skipped:\t"+line);
-		
-		if (line == null)
-			return null;
-		else {
-			String[] result = line.split("pp");
-			result[0] = result[0].trim();
-			result[1] = result[1].trim();
-			return result;
+		String[] entry;
+		do
+			entry = nextEntry();
+		while (entry != null && entry.length < 2);
+		return entry;
+	}
+
+	/**
+	 * Like next(), but a line with only a source gives an array with just that protein name.
+	 * @return Array with two protein names (an interaction) or one (a protein without interactions), or null if no more entries in file.
+	 * @throws IOException
+	 */
+	String[] nextEntry() throws IOException{
+		while (target >= fields.length){
+			String line = r.readLine();
+			if (line == null)
+				return null;
+			fields = split(line);
+			target = 2;
+			if (fields.length == 1){
+				target = 1;
+				return new String[]{fields[0]};
+			}
+			if (fields.length == 2)
+				System.out.println("[SIF reader]Warning: the following line did not have the expected format and was skipped:\t"+line);
+		}
+		return new String[]{fields[0], fields[target++]};
+	}
+
+	/**
+	 * Fields of a line, see the class comment.
+	 */
+	static String[] split(String line){
+		char separator = line.indexOf('\t') >= 0 ? '\t' : ' ';
+		ArrayList<String> fields = new ArrayList<String>();
+		int x = 0;
+		while (x < line.length()){
+			while (x < line.length() && isSeparator(line.charAt(x), separator))
+				x++;
+			int start = x;
+			while (x < line.length() && !isSeparator(line.charAt(x), separator))
+				x++;
+			String field = line.substring(start, x).trim();
+			if (field.length() > 0)
+				fields.add(field);
+		}
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	private static boolean isSeparator(char c, char separator){
+		return c == separator || c == '\t' || c == '\r';
+	}
+
+	/**
+	 * All interactions of a SIF file, as numbers.
+	 */
+	static class Network {
+		String[] names;	//names[v]: name of protein v, numbered in the order they first appear in the file
+		int[] a, b;		//interaction x is between proteins a[x] and b[x]
+		int edges;
+	}
+
+	/**
+	 * Reads the whole file: memory-mapped, cut into pieces at line ends, each piece parsed by one of the threads.
+	 * Each thread gives its proteins its own numbers (comparing bytes, one String per different name);
+	 * in the end they are renumbered in file order. Malformed lines are skipped, with a warning.
+	 * @param filename
+	 * @param threads
+	 * @return the interactions, with the same numbering as reading with nextEntry() would give
+	 * @throws IOException
+	 */
+	static Network parse(String filename, int threads) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		final FileChannel channel = file.getChannel();
+		long size = file.length();
+		//Cut the file into pieces, each starting after a line end
+		ArrayList<Long> cuts = new ArrayList<Long>();
+		cuts.add(0L);
+		long pieceSize = Math.max(1 << 16, Math.min(CHUNK, size / (4 * threads) + 1));
+		for (long cut = pieceSize; cut < size; cut += pieceSize){
+			MappedByteBuffer probe = channel.map(FileChannel.MapMode.READ_ONLY, cut - 1, Math.min(size - cut + 1, 1 << 16));
+			int x = 0;
+			while (x < probe.limit() && probe.get(x) != '\n')
+				x++;
+			if (x == probe.limit())
+				continue;	//a very long line, this piece goes on
+			long start = cut + x;
+			if (start > cuts.get(cuts.size()-1) && start < size)
+				cuts.add(start);
+		}
+		cuts.add(size);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Piece>> pieces = new ArrayList<Callable<Piece>>();
+		for (int p=0;p+1<cuts.size();p++){
+			final long from = cuts.get(p), to = cuts.get(p+1);
+			pieces.add(new Callable<Piece>(){
+				public Piece call() throws IOException{
+					return new Piece(channel.map(FileChannel.MapMode.READ_ONLY, from, to - from));
+				}
+			});
+		}
+		Network network = new Network();
+		try {
+			List<Future<Piece>> done = pool.invokeAll(pieces);
+			//Renumber: pieces in file order, and within a piece in order of first appearance
+			HashMap<String, Integer> ids = new HashMap<String, Integer>();
+			ArrayList<String> names = new ArrayList<String>();
+			int edges = 0;
+			for (Future<Piece> f : done)
+				edges += f.get().edges;
+			network.a = new int[edges];
+			network.b = new int[edges];
+			for (Future<Piece> f : done){
+				Piece piece = f.get();
+				int[] id = new int[piece.names.size()];
+				for (int x=0;x<id.length;x++){
+					Integer global = ids.get(piece.names.get(x));
+					if (global == null){
+						global = names.size();
+						ids.put(piece.names.get(x), global);
+						names.add(piece.names.get(x));
+					}
+					id[x] = global;
+				}
+				for (int x=0;x<piece.edges;x++){
+					network.a[network.edges] = id[piece.a[x]];
+					network.b[network.edges++] = id[piece.b[x]];
+				}
+				for (String line : piece.malformed)
+					System.out.println("[SIF reader]Warning: the following line did not have the expected format and was skipped:\t"+line);
+			}
+			network.names = names.toArray(new String[names.size()]);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+			file.close();
+		}
+		return network;
+	}
+
+	/**
+	 * One piece of the file, parsed: proteins numbered within the piece, and its interactions.
+	 */
+	private static class Piece {
+		final MappedByteBuffer buffer;
+		final ArrayList<String> names = new ArrayList<String>();
+		final ArrayList<String> malformed = new ArrayList<String>();
+		int[] a = new int[1024], b = new int[1024];
+		int edges;
+		//names seen in this piece: open addressing, slot -> number + 1 (0: empty). Where the name is in the buffer:
+		private int[] table = new int[1024];
+		private int[] nameStart = new int[512], nameLength = new int[512];
+
+		Piece(MappedByteBuffer buffer){
+			this.buffer = buffer;
+			int limit = buffer.limit();
+			int[] start = new int[16], end = new int[16];	//fields of the current line
+			int x = 0;
+			while (x < limit){
+				int lineEnd = x;
+				boolean tabs = false;
+				while (lineEnd < limit && buffer.get(lineEnd) != '\n'){
+					if (buffer.get(lineEnd) == '\t')
+						tabs = true;
+					lineEnd++;
+				}
+				//cut the line into fields
+				int count = 0;
+				int y = x;
+				while (y < lineEnd){
+					while (y < lineEnd && separator(buffer.get(y), tabs))
+						y++;
+					int s = y;
+					while (y < lineEnd && !separator(buffer.get(y), tabs))
+						y++;
+					int e = y;
+					while (e > s && blank(buffer.get(e-1)))	//names with blanks (tab separated): trim
+						e--;
+					while (s < e && blank(buffer.get(s)))
+						s++;
+					if (e > s){
+						if (count == start.length){
+							start = Arrays.copyOf(start, 2*count);
+							end = Arrays.copyOf(end, 2*count);
+						}
+						start[count] = s;
+						end[count++] = e;
+					}
+				}
+				if (count == 2)
+					malformed.add(string(x, lineEnd).trim());
+				else if (count > 0){
+					int source = intern(start[0], end[0]);
+					for (int t=2;t<count;t++)
+						add(source, intern(start[t], end[t]));
+				}
+				x = lineEnd + 1;
+			}
+		}
+
+		private static boolean separator(byte c, boolean tabs){
+			return c == '\t' || c == '\r' || (!tabs && c == ' ');
+		}
+
+		private static boolean blank(byte c){
+			return c == ' ' || c == '\r';
+		}
+
+		private void add(int source, int target){
+			if (edges == a.length){
+				a = Arrays.copyOf(a, 2*edges);
+				b = Arrays.copyOf(b, 2*edges);
+			}
+			a[edges] = source;
+			b[edges++] = target;
+		}
+
+		/**
+		 * Number of the name in buffer[s...e-1] within this piece.
+		 */
+		private int intern(int s, int e){
+			int hash = 0;
+			for (int x=s;x<e;x++)
+				hash = 31*hash + buffer.get(x);
+			hash ^= hash >>> 16;
+			int mask = table.length - 1;
+			for (int slot=hash & mask;;slot=(slot+1) & mask){
+				int id = table[slot] - 1;
+				if (id < 0){
+					id = names.size();
+					names.add(string(s, e));
+					if (id == nameStart.length){
+						nameStart = Arrays.copyOf(nameStart, 2*id);
+						nameLength = Arrays.copyOf(nameLength, 2*id);
+					}
+					nameStart[id] = s;
+					nameLength[id] = e - s;
+					table[slot] = id + 1;
+					if (2 * names.size() > table.length)
+						rehash();
+					return id;
+				}
+				if (nameLength[id] == e - s && equal(nameStart[id], s, e - s))
+					return id;
+			}
+		}
+
+		private boolean equal(int x, int y, int length){
+			for (int z=0;z<length;z++)
+				if (buffer.get(x+z) != buffer.get(y+z))
+					return false;
+			return true;
+		}
+
+		private void rehash(){
+			table = new int[2 * table.length];
+			int mask = table.length - 1;
+			for (int id=0;id<names.size();id++){
+				int hash = 0;
+				for (int x=nameStart[id];x<nameStart[id]+nameLength[id];x++)
+					hash = 31*hash + buffer.get(x);
+				hash ^= hash >>> 16;
+				int slot = hash & mask;
+				while (table[slot] != 0)
+					slot = (slot+1) & mask;
+				table[slot] = id + 1;
+			}
+		}
+
+		private String string(int s, int e){
+			byte[] bytes = new byte[e - s];
+			for (int x=s;x<e;x++)
+				bytes[x-s] = buffer.get(x);
+			return new String(bytes, UTF8);
 		}
 	}
 }
@@ -0,0 +1,130 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the triangles of an IntGraph, for the clustering coefficients.
+ * Every edge is directed from the node with the smaller degree to the one with the larger degree (ties: smaller number first).
+ * Then every triangle is found exactly once, at its "smallest" node v: for each forward neighbour u of v, the common forward
+ * neighbours of v and u, by merging the two sorted lists. A node has at most sqrt(2E) forward neighbours, so the hubs no longer
+ * dominate: O(E * sqrt(E)) instead of the sum of degree^2, and no hashing.
+ * The nodes are split among the threads of a ForkJoinPool; the counts per node are added up in an AtomicLongArray.
+ * @author kehwan
+ *
+ */
+public class Triangles {
+	private static final int SEQUENTIAL = 256;	//nodes per task, below this no more splitting
+
+	/**
+	 * Number of triangles through each node.
+	 * @param g
+	 * @param pool
+	 * @return triangles[v]: number of edges among the neighbours of v
+	 */
+	static long[] count(IntGraph g, ForkJoinPool pool){
+		final int n = g.nodeCount();
+		//forward neighbours, still sorted by node number
+		final int[] forwardOffset = new int[n+1];
+		for (int v=0;v<n;v++)
+			for (int x=g.offset[v];x<g.offset[v+1];x++)
+				if (before(g, v, g.adjacency[x]))
+					forwardOffset[v+1]++;
+		for (int v=0;v<n;v++)
+			forwardOffset[v+1] += forwardOffset[v];
+		final int[] forward = new int[forwardOffset[n]];
+		for (int v=0,w=0;v<n;v++)
+			for (int x=g.offset[v];x<g.offset[v+1];x++)
+				if (before(g, v, g.adjacency[x]))
+					forward[w++] = g.adjacency[x];
+
+		final AtomicLongArray triangles = new AtomicLongArray(n);
+		pool.invoke(new Count(forwardOffset, forward, triangles, 0, n));
+		long[] result = new long[n];
+		for (int v=0;v<n;v++)
+			result[v] = triangles.get(v);
+		return result;
+	}
+
+	/**
+	 * Is v before u in the order by degree, then number?
+	 */
+	private static boolean before(IntGraph g, int v, int u){
+		return g.degree(v) < g.degree(u) || (g.degree(v) == g.degree(u) && v < u);
+	}
+
+	/**
+	 * The triangles at the nodes from...to-1, split in halves while there are many.
+	 */
+	private static class Count extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] offset, forward;
+		private final AtomicLongArray triangles;
+		private final int from, to;
+
+		Count(int[] offset, int[] forward, AtomicLongArray triangles, int from, int to){
+			this.offset = offset;
+			this.forward = forward;
+			this.triangles = triangles;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute(){
+			if (to - from > SEQUENTIAL){
+				int middle = (from + to) >>> 1;
+				invokeAll(new Count(offset, forward, triangles, from, middle), new Count(offset, forward, triangles, middle, to));
+				return;
+			}
+			for (int v=from;v<to;v++){
+				long atV = 0;
+				for (int x=offset[v];x<offset[v+1];x++){
+					int u = forward[x];
+					//common forward neighbours of v and u
+					int a = offset[v], b = offset[u];
+					long atU = 0;
+					while (a < offset[v+1] && b < offset[u+1]){
+						if (forward[a] < forward[b])
+							a++;
+						else if (forward[a] > forward[b])
+							b++;
+						else {
+							triangles.incrementAndGet(forward[a]);
+							atU++;
+							a++;
+							b++;
+						}
+					}
+					if (atU > 0)
+						triangles.addAndGet(u, atU);
+					atV += atU;
+				}
+				if (atV > 0)
+					triangles.addAndGet(v, atV);
+			}
+		}
+	}
+
+	/**
+	 * Local clustering coefficient of each node: the fraction of pairs of its neighbours that are linked, 0 for degree < 2.
+	 * The average over all nodes is what Toolkit.averageClusteringCoefficient computes.
+	 */
+	static double[] coefficients(IntGraph g, long[] triangles){
+		double[] cc = new double[g.nodeCount()];
+		for (int v=0;v<g.nodeCount();v++){
+			long degree = g.degree(v);
+			if (degree > 1)
+				cc[v] = (double) triangles[v] / (degree * (degree - 1) / 2);
+		}
+		return cc;
+	}
+
+	/**
+	 * Average of the local clustering coefficients over all nodes.
+	 */
+	static double average(double[] cc){
+		double sum = 0;
+		for (double c : cc)
+			sum += c;
+		return cc.length == 0 ? 0 : sum / cc.length;
+	}
+}